@@ -0,0 +1,55 @@
+package cloth;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for ClothRefiner to refine the positions of an n x n cloth into a mesh factor times finer, as ClothPanel does each
+ * frame when subdivided.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClothRefineBenchmark {
+	@Param({"32", "128"})
+	private int n;
+
+	@Param({"2", "4"})
+	private int factor;
+
+	private ClothRefiner refiner;
+	private float[] coarse;
+	private float[] fine;
+
+	@Setup
+	public void setUp() {
+		final ClothSimulation simulation = new ClothSimulation(n, 40);
+		for (int i = 0; i < 100; i++) {
+			simulation.advance(1.0);
+		}
+		coarse = new float[3*simulation.getPointCount()];
+		simulation.copyPositionsTo(coarse, 0, simulation.getPointCount());
+		refiner = new ClothRefiner(n, n, factor);
+		fine = new float[3*refiner.getFineRows()*refiner.getFineCols()];
+	}
+
+	@Benchmark
+	public float[] refine() {
+		refiner.refine(coarse, fine);
+		return fine;
+	}
+}
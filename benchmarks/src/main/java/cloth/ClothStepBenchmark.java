@@ -0,0 +1,49 @@
+package cloth;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for one fixed step of ClothSimulation (springs and integration) on an n x n cloth, for each integrator.
+ * SYMPLECTIC_EULER and VERLET take 8 substeps per fixed step, as in ClothMesh.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClothStepBenchmark {
+	@Param({"32", "128", "256"})
+	private int n;
+
+	@Param({"EXPLICIT", "SYMPLECTIC_EULER", "VERLET", "XPBD", "IMPLICIT"})
+	private ClothSimulation.Integrator integrator;
+
+	private ClothSimulation simulation;
+
+	@Setup
+	public void setUp() {
+		simulation = new ClothSimulation(n, 40);
+		simulation.setIntegrator(integrator);
+		if (integrator == ClothSimulation.Integrator.SYMPLECTIC_EULER || integrator == ClothSimulation.Integrator.VERLET) {
+			simulation.setSubsteps(8);
+		}
+	}
+
+	@Benchmark
+	public int step() {
+		return simulation.advance(simulation.getFixedTimeStep());
+	}
+}
@@ -0,0 +1,61 @@
+package examples;
+
+import java.util.concurrent.TimeUnit;
+
+import javafx.geometry.Point3D;
+import javafx.scene.paint.PhongMaterial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to build a Tube or a Spiral (their constructors call build()) and to flatten a Tube. The meshes are never shown,
+ * so the JavaFX toolkit needn't be running.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshBuildBenchmark {
+	@Param({"100", "1000", "10000"})
+	private int divisions;
+
+	private final Point3D start = new Point3D(0, 0, 0);
+	private final Point3D end = new Point3D(300, 200, 100);
+	private final PhongMaterial material = new PhongMaterial();
+	private Tube tube;
+	private double ratioFlat = 0.0;
+
+	@Setup
+	public void setUp() {
+		tube = new Tube(start, end, divisions, 10, material);
+	}
+
+	@Benchmark
+	public Tube buildTube() {
+		return new Tube(start, end, divisions, 10, material);
+	}
+
+	@Benchmark
+	public Tube flattenTube() {
+		ratioFlat = ratioFlat >= 1.0 ? 0.0 : ratioFlat + 0.01;
+		tube.flatten(ratioFlat);
+		return tube;
+	}
+
+	@Benchmark
+	public Spiral buildSpiral() {
+		return new Spiral(start, end, divisions, 10, material);
+	}
+}
@@ -0,0 +1,50 @@
+package particles;
+
+import java.util.concurrent.TimeUnit;
+
+import javafx.geometry.Point3D;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to build a Particles.ParticleGroup (its constructor calls buildParticles(), which appends to the group's mesh, so each
+ * measurement needs a new group) and to move one. The groups are never shown, so the JavaFX toolkit needn't be running.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticlesBenchmark {
+	private final Point3D direction = new Point3D(1.0, -1, 0).normalize();
+	private final Point3D nozzleLocation = new Point3D(-50, 140, 0);
+	private Particles particles;
+	private Particles.ParticleGroup group;
+
+	@Setup
+	public void setUp() {
+		particles = new Particles();
+		group = particles.new ParticleGroup(direction, nozzleLocation);
+	}
+
+	@Benchmark
+	public Particles.ParticleGroup buildParticles() {
+		return particles.new ParticleGroup(direction, nozzleLocation);
+	}
+
+	@Benchmark
+	public double move() {
+		group.move();
+		return group.getTranslateX();
+	}
+}
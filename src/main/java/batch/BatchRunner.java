@@ -0,0 +1,330 @@
+package batch;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+import cloth.ClothSimulation;
+import cloth.SpringStencil;
+import metrics.Metrics;
+import metrics.PhaseTimer;
+import particles.ParticleBatch;
+
+/**
+ * Runs a cloth or particle simulation for a number of steps without a window, then prints its throughput, the
+ * percentiles of its step times (and, for cloth, of each phase of a step), the bytes allocated per step, and a CRC-32
+ * checksum of the final state. Meant for CI and for comparing changes to the simulations on machines without a display:
+ *
+ *     java -cp target/classes batch.BatchRunner simulation=cloth rows=128 cols=128 steps=500
+ *
+ * The configuration is a list of key=value arguments (a leading -- is allowed), read after the properties file named by
+ * config=..., if any. The keys, with their defaults:
+ *
+ *     simulation=cloth            cloth or particles
+ *     steps=1000                  steps timed and counted
+ *     warmup=100                  steps run before timing, to let the JIT compile the hot paths
+ *     expectedChecksum=...        if given, exit with status 1 unless the final checksum is this (in hex)
+ *
+ *   for cloth, each step is one ClothSimulation.advance(timeFactor / stepsPerSecond), like a tick of ClothSimulationThread:
+ *     rows=20 cols=20 timeFactor=57.2 stepsPerSecond=60
+ *     windForceFactor, windCycleFactor, fabricForceFactor, gravity, damping (ClothSimulation's defaults)
+ *     integrator=EXPLICIT substeps (0: 8 for SYMPLECTIC_EULER and VERLET, else 1) iterations=10 timeStep=1.0
+ *     selfCollision=false tearing=false aerodynamicDrag=0 multigrid=false sleeping=false sleepEnergy (see setSleepEnergy())
+ *     shear=false bend=false (add springs to SpringStencil.DEFAULT, see withShear() and withBend())
+ *     vector=true (use the Vector API kernel if it's available; see ClothSimulation.isVectorAvailable())
+ *     threads (the size of the ForkJoinPool large grids are stepped on; the common pool by default)
+ *
+ *   for particles, each step is one frame of Particles (see ParticleBatch):
+ *     groups=120 particlesPerGroup=6000 motionSpeed=1.9 rotationSpeed=1.8 longevity=200 seed=1
+ *
+ * Both simulations are deterministic: cloth steps with a fixed time step and no random numbers, with the same result on
+ * any number of threads, and the particles draw from SplittableRandom streams split from seed. So the same configuration
+ * gives the same checksum on every run, and a different checksum after a change means the change altered the results.
+ *
+ * Particle classes are only loaded for simulation=particles, so cloth runs don't need JavaFX on the classpath.
+ * A bad configuration exits with status 2.
+ */
+public class BatchRunner {
+	private static final Set<String> commonKeys = new HashSet<>(Arrays.asList("config", "simulation", "steps", "warmup",
+			"expectedChecksum"));
+	private static final Set<String> clothKeys = new HashSet<>(Arrays.asList("rows", "cols", "timeFactor", "stepsPerSecond",
+			"windForceFactor", "windCycleFactor", "fabricForceFactor", "gravity", "damping", "integrator", "substeps",
+			"iterations", "timeStep", "selfCollision", "tearing", "aerodynamicDrag", "multigrid", "sleeping", "sleepEnergy",
+			"shear", "bend", "vector", "threads"));
+	private static final Set<String> particleKeys = new HashSet<>(Arrays.asList("groups", "particlesPerGroup",
+			"motionSpeed", "rotationSpeed", "longevity", "seed"));
+	private final Properties config;
+	private final Metrics metrics = new Metrics("batch");
+	private final PhaseTimer stepTimer = metrics.allocationTimer("batch.step");
+
+	public BatchRunner(final Properties config) {
+		this.config = config;
+	}
+
+	public static void main(String[] args) {
+		final Properties config;
+		try {
+			config = readConfiguration(args);
+		} catch (IllegalArgumentException | IOException exc) {
+			System.err.println(exc.getMessage());
+			System.err.println("Usage: java batch.BatchRunner [config=file.properties] [key=value ...]; see the Javadoc of BatchRunner for the keys");
+			System.exit(2);
+			return;
+		}
+		final boolean matched;
+		try {
+			matched = new BatchRunner(config).run();
+		} catch (IllegalArgumentException exc) {
+			System.err.println(exc.getMessage());
+			System.exit(2);
+			return;
+		}
+		System.exit(matched ? 0 : 1);
+	}
+
+	/**
+	 * @return the properties of the config=... file, if any, overridden by the other key=value arguments
+	 */
+	static Properties readConfiguration(final String[] args) throws IOException {
+		final Properties arguments = new Properties();
+		for (String arg : args) {
+			final String keyValue = arg.startsWith("--") ? arg.substring(2) : arg;
+			final int equals = keyValue.indexOf('=');
+			if (equals <= 0) {
+				throw new IllegalArgumentException("Not key=value: " + arg);
+			}
+			arguments.setProperty(keyValue.substring(0, equals).trim(), keyValue.substring(equals + 1).trim());
+		}
+		final Properties config = new Properties();
+		if (arguments.containsKey("config")) {
+			try (Reader reader = Files.newBufferedReader(Paths.get(arguments.getProperty("config")))) {
+				config.load(reader);
+			}
+		}
+		config.putAll(arguments);
+		final String simulation = config.getProperty("simulation", "cloth");
+		final Set<String> keys = new HashSet<>(commonKeys);
+		if (simulation.equals("cloth")) {
+			keys.addAll(clothKeys);
+		} else if (simulation.equals("particles")) {
+			keys.addAll(particleKeys);
+		} else {
+			throw new IllegalArgumentException("simulation must be cloth or particles: " + simulation);
+		}
+		for (String key : config.stringPropertyNames()) {
+			if (!keys.contains(key)) {
+				throw new IllegalArgumentException("Unknown key for simulation=" + simulation + ": " + key);
+			}
+		}
+		return config;
+	}
+
+	/**
+	 * Runs the configured simulation and prints the results.
+	 * @return false if expectedChecksum was given and the final checksum differs
+	 */
+	public boolean run() {
+		final int steps = getInt("steps", 1000, 1);
+		final int warmup = getInt("warmup", 100, 0);
+		final String simulation = config.getProperty("simulation", "cloth");
+		final long checksum = simulation.equals("particles") ? runParticles(steps, warmup) : runCloth(steps, warmup);
+		System.out.println(String.format("checksum %08x", checksum));
+		final String expected = config.getProperty("expectedChecksum");
+		if (expected == null) {
+			return true;
+		}
+		final long expectedChecksum;
+		try {
+			expectedChecksum = Long.parseLong(expected, 16);
+		} catch (NumberFormatException exc) {
+			throw new IllegalArgumentException("expectedChecksum is not hexadecimal: " + expected);
+		}
+		if (expectedChecksum != checksum) {
+			System.out.println(String.format("MISMATCH: expected checksum %08x", expectedChecksum));
+			return false;
+		}
+		return true;
+	}
+
+	private long runCloth(final int steps, final int warmup) {
+		SpringStencil stencil = SpringStencil.DEFAULT;
+		if (Boolean.parseBoolean(config.getProperty("shear"))) {
+			stencil = stencil.withShear();
+		}
+		if (Boolean.parseBoolean(config.getProperty("bend"))) {
+			stencil = stencil.withBend();
+		}
+		final ClothSimulation simulation = new ClothSimulation(getInt("rows", 20, 2), getInt("cols", 20, 2), 40, stencil);
+		simulation.setWindForceFactor(getDouble("windForceFactor", simulation.getWindForceFactor()));
+		simulation.setWindCycleFactor(getDouble("windCycleFactor", simulation.getWindCycleFactor()));
+		simulation.setFabricForceFactor(getDouble("fabricForceFactor", simulation.getFabricForceFactor()));
+		simulation.setGravity(getDouble("gravity", simulation.getGravity()));
+		simulation.setDamping(getDouble("damping", simulation.getDamping()));
+		final ClothSimulation.Integrator integrator;
+		try {
+			integrator = ClothSimulation.Integrator.valueOf(config.getProperty("integrator", "EXPLICIT").trim().toUpperCase());
+		} catch (IllegalArgumentException exc) {
+			throw new IllegalArgumentException("Unknown integrator: " + config.getProperty("integrator"));
+		}
+		simulation.setIntegrator(integrator);
+		final boolean stiff = integrator == ClothSimulation.Integrator.SYMPLECTIC_EULER
+				|| integrator == ClothSimulation.Integrator.VERLET;
+		final int substeps = getInt("substeps", 0, 0);
+		simulation.setSubsteps(substeps > 0 ? substeps : stiff ? 8 : 1);
+		simulation.setIterations(getInt("iterations", simulation.getIterations(), 1));
+		final double timeStep = getDouble("timeStep", simulation.getFixedTimeStep());
+		if (timeStep <= 0) {
+			throw new IllegalArgumentException("timeStep must be positive: " + timeStep);
+		}
+		simulation.setFixedTimeStep(timeStep);
+		simulation.setSelfCollision(Boolean.parseBoolean(config.getProperty("selfCollision")));
+		simulation.setTearing(Boolean.parseBoolean(config.getProperty("tearing")));
+		simulation.setAerodynamicDrag(Math.max(0, getDouble("aerodynamicDrag", 0)));
+		simulation.setMultigrid(Boolean.parseBoolean(config.getProperty("multigrid")));
+		simulation.setSleeping(Boolean.parseBoolean(config.getProperty("sleeping")));
+		simulation.setSleepEnergy(Math.max(0, getDouble("sleepEnergy", simulation.getSleepEnergy())));
+		simulation.setVectorized(Boolean.parseBoolean(config.getProperty("vector", "true")));
+		final ForkJoinPool pool = config.containsKey("threads") ? new ForkJoinPool(getInt("threads", 1, 1)) : null;
+		if (pool != null) {
+			simulation.setPool(pool);
+		}
+		final double frameDelta = getDouble("timeFactor", 57.2) / getDouble("stepsPerSecond", 60);
+		System.out.println("cloth " + simulation.getRows() + "x" + simulation.getCols() + ", " + integrator + ", "
+				+ simulation.getSubsteps() + " substeps, " + simulation.getSpringCount() + " springs, "
+				+ (simulation.getPool() == null ? 1 : simulation.getPool().getParallelism()) + " threads"
+				+ (simulation.isVectorized() ? ", vectorized" : ""));
+		try {
+			for (int i = 0; i < warmup; i++) {
+				simulation.advance(frameDelta);
+			}
+			simulation.setMetrics(metrics);
+			long fixedSteps = 0;
+			final long start = System.nanoTime();
+			for (int i = 0; i < steps; i++) {
+				final long stepStart = stepTimer.start();
+				fixedSteps += simulation.advance(frameDelta);
+				stepTimer.stop(stepStart);
+			}
+			final double seconds = (System.nanoTime() - start) * 1e-9;
+			simulation.setMetrics(null);
+			System.out.println(String.format("%d steps (%d fixed steps) in %.3f s: %.1f steps/s, %.3g point-steps/s",
+					steps, fixedSteps, seconds, steps / seconds, (double) fixedSteps*simulation.getPointCount() / seconds));
+			if (simulation.isSleeping()) {
+				System.out.println(simulation.getAsleepTileCount() + " of " + simulation.getTileCount() + " tiles asleep");
+			}
+			report();
+			return checksum(simulation.getPositions());
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	private long runParticles(final int steps, final int warmup) {
+		final ParticleBatch batch = new ParticleBatch(getInt("groups", 120, 1), getInt("particlesPerGroup", 6000, 1),
+				getDouble("motionSpeed", 1.9), getDouble("rotationSpeed", 1.8), getDouble("longevity", 200), getLong("seed", 1));
+		System.out.println("particles " + config.getProperty("groups", "120") + " groups of "
+				+ config.getProperty("particlesPerGroup", "6000"));
+		for (int i = 0; i < warmup; i++) {
+			batch.step();
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < steps; i++) {
+			final long stepStart = stepTimer.start();
+			batch.step();
+			stepTimer.stop(stepStart);
+		}
+		final double seconds = (System.nanoTime() - start) * 1e-9;
+		System.out.println(String.format("%d steps in %.3f s: %.1f steps/s, %d particles", steps, seconds, steps / seconds,
+				batch.getParticleCount()));
+		report();
+		return batch.checksum();
+	}
+
+	private void report() {
+		System.out.println(String.format("%-20s %8s %10s %10s %10s %10s %10s %10s", "phase", "calls", "mean", "median",
+				"p90", "p99", "max", "bytes/call"));
+		for (PhaseTimer timer : metrics.getTimers()) {
+			final PhaseTimer.Snapshot snapshot = timer.snapshot();
+			System.out.println(String.format("%-20s %8d %10s %10s %10s %10s %10s %10s", timer.getName(), snapshot.getCount(),
+					duration(snapshot.getMeanNanos()), duration(snapshot.getPercentileNanos(50)),
+					duration(snapshot.getPercentileNanos(90)), duration(snapshot.getPercentileNanos(99)),
+					duration(snapshot.getMaxNanos()),
+					timer.isCountingAllocations() ? String.format("%.0f", snapshot.getAllocatedBytesPerCall()) : "-"));
+		}
+	}
+
+	private static String duration(final double nanos) {
+		if (nanos >= 1e6) {
+			return String.format("%.3f ms", nanos / 1e6);
+		}
+		return String.format("%.1f us", nanos / 1e3);
+	}
+
+	/**
+	 * @return a CRC-32 of the bits of the floats in positions
+	 */
+	static long checksum(final FloatBuffer positions) {
+		final CRC32 crc = new CRC32();
+		final byte[] bytes = new byte[4];
+		for (int i = positions.position(); i < positions.limit(); i++) {
+			final int bits = Float.floatToIntBits(positions.get(i));
+			bytes[0] = (byte) bits;
+			bytes[1] = (byte) (bits >>> 8);
+			bytes[2] = (byte) (bits >>> 16);
+			bytes[3] = (byte) (bits >>> 24);
+			crc.update(bytes, 0, 4);
+		}
+		return crc.getValue();
+	}
+
+	private int getInt(final String key, final int defaultValue, final int min) {
+		final String value = config.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		final int result;
+		try {
+			result = Integer.parseInt(value.trim());
+		} catch (NumberFormatException exc) {
+			throw new IllegalArgumentException(key + " is not an integer: " + value);
+		}
+		if (result < min) {
+			throw new IllegalArgumentException(key + " must be at least " + min + ": " + value);
+		}
+		return result;
+	}
+
+	private long getLong(final String key, final long defaultValue) {
+		final String value = config.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException exc) {
+			throw new IllegalArgumentException(key + " is not an integer: " + value);
+		}
+	}
+
+	private double getDouble(final String key, final double defaultValue) {
+		final String value = config.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException exc) {
+			throw new IllegalArgumentException(key + " is not a number: " + value);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package cloth;
+
+import java.util.List;
+
+/**
+ * A bounding volume hierarchy over the primitives of a list of obstacles, so that pushing a point out of the obstacles
+ * only tests the primitives whose bounding boxes are near it, however many triangles the obstacles have.
+ *
+ * The tree is a binary tree of axis-aligned boxes, built once by splitting the primitives at the median of their centers
+ * along the longest axis, until at most LEAF_SIZE are left. The nodes are stored depth first in flat arrays: the left child
+ * of a node is the next node, and nodeRight holds the right child. Queries only read the tree, so any number of threads
+ * may query it at once.
+ */
+final class BoundingVolumeHierarchy {
+	private static final int LEAF_SIZE = 4;
+	static final int STACK_SIZE = 64; // the tree is balanced, so this is enough for 2^62 primitives
+	private final Obstacle[] primitiveObstacle;
+	private final int[] primitiveIndex;
+	private final double[] primitiveBounds; // 6 per primitive: minX, minY, minZ, maxX, maxY, maxZ
+	private final int[] order; // primitives sorted so that each leaf's are contiguous
+	private final double[] nodeBounds; // 6 per node
+	private final int[] nodeStart; // for a leaf, its primitives are order[nodeStart .. nodeStart+nodeCount-1]
+	private final int[] nodeCount; // 0 for an inner node
+	private final int[] nodeRight;
+	private int nodes = 0;
+
+	BoundingVolumeHierarchy(final List<Obstacle> obstacles) {
+		int count = 0;
+		for (Obstacle obstacle : obstacles) {
+			count += obstacle.getPrimitiveCount();
+		}
+		primitiveObstacle = new Obstacle[count];
+		primitiveIndex = new int[count];
+		primitiveBounds = new double[6*count];
+		order = new int[count];
+		int k = 0;
+		for (Obstacle obstacle : obstacles) {
+			for (int primitive = 0; primitive < obstacle.getPrimitiveCount(); primitive++, k++) {
+				primitiveObstacle[k] = obstacle;
+				primitiveIndex[k] = primitive;
+				obstacle.getBounds(primitive, primitiveBounds, 6*k);
+				order[k] = k;
+			}
+		}
+		final int maxNodes = Math.max(1, 2*count);
+		nodeBounds = new double[6*maxNodes];
+		nodeStart = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+		nodeRight = new int[maxNodes];
+		if (count > 0) {
+			build(0, count);
+		}
+	}
+
+	/**
+	 * Builds the node for primitives order[from .. to-1] and its descendants.
+	 * @return the index of the node
+	 */
+	private int build(final int from, final int to) {
+		final int node = nodes++;
+		final int b = 6*node;
+		for (int axis = 0; axis < 3; axis++) {
+			nodeBounds[b+axis] = Double.POSITIVE_INFINITY;
+			nodeBounds[b+3+axis] = Double.NEGATIVE_INFINITY;
+		}
+		final double[] centerMin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		final double[] centerMax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for (int i = from; i < to; i++) {
+			final int p = 6*order[i];
+			for (int axis = 0; axis < 3; axis++) {
+				nodeBounds[b+axis] = Math.min(nodeBounds[b+axis], primitiveBounds[p+axis]);
+				nodeBounds[b+3+axis] = Math.max(nodeBounds[b+3+axis], primitiveBounds[p+3+axis]);
+				final double center = center(order[i], axis);
+				centerMin[axis] = Math.min(centerMin[axis], center);
+				centerMax[axis] = Math.max(centerMax[axis], center);
+			}
+		}
+		if (to - from <= LEAF_SIZE) {
+			nodeStart[node] = from;
+			nodeCount[node] = to - from;
+			return node;
+		}
+		int axis = 0;
+		for (int a = 1; a < 3; a++) {
+			if (centerMax[a] - centerMin[a] > centerMax[axis] - centerMin[axis]) {
+				axis = a;
+			}
+		}
+		final int middle = (from + to) >>> 1;
+		select(from, to - 1, middle, axis);
+		build(from, middle);
+		nodeRight[node] = build(middle, to);
+		return node;
+	}
+
+	private double center(final int primitive, final int axis) {
+		return primitiveBounds[6*primitive+axis] + primitiveBounds[6*primitive+3+axis];
+	}
+
+	/**
+	 * Quickselect: reorders order[left .. right] so that order[k] has the k-th smallest center along axis, with smaller
+	 * centers before it and larger ones after it.
+	 */
+	private void select(int left, int right, final int k, final int axis) {
+		while (left < right) {
+			final double pivot = center(order[(left + right) >>> 1], axis);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (center(order[i], axis) < pivot) {
+					i++;
+				}
+				while (center(order[j], axis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					final int swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Pushes the point p out of every primitive it is closer than margin to.
+	 * @param p x, y, z of the point, followed by 3 doubles of scratch space
+	 * @param stack scratch space for the traversal, of at least STACK_SIZE ints
+	 * @return true if the point moved
+	 */
+	boolean pushOut(final double[] p, final double margin, final int[] stack) {
+		if (nodes == 0) {
+			return false;
+		}
+		int top = 0;
+		stack[top++] = 0;
+		boolean moved = false;
+		while (top > 0) {
+			final int node = stack[--top];
+			final int b = 6*node;
+			if (p[0] < nodeBounds[b] - margin || p[0] > nodeBounds[b+3] + margin
+					|| p[1] < nodeBounds[b+1] - margin || p[1] > nodeBounds[b+4] + margin
+					|| p[2] < nodeBounds[b+2] - margin || p[2] > nodeBounds[b+5] + margin) {
+				continue;
+			}
+			if (nodeCount[node] > 0) {
+				for (int i = nodeStart[node], end = i + nodeCount[node]; i < end; i++) {
+					final int primitive = order[i];
+					if (primitiveObstacle[primitive].pushOut(primitiveIndex[primitive], p, margin)) {
+						moved = true;
+					}
+				}
+			} else {
+				stack[top++] = nodeRight[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return moved;
+	}
+}
@@ -0,0 +1,165 @@
+package cloth;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free triple buffer of cloth position frames, for handing positions from the thread that steps a ClothSimulation
+ * (the producer) to the JavaFX thread that renders them (the consumer).
+ *
+ * The producer fills the back frame and publishes it by swapping it with the middle frame. The consumer takes the middle frame
+ * by swapping it with its front frame. Neither side ever waits for the other; if the producer publishes twice before the
+ * consumer takes a frame, the older frame is simply dropped.
+ *
+ * Only the points that changed are copied: publish() copies into the back frame the points that changed since that frame was
+ * last filled, and each published frame says which points changed since the last frame the consumer reported with consumed().
+ * Frame sequence numbers and a short history of dirty ranges make that possible; if the history is too short, the whole cloth
+ * counts as dirty.
+ */
+public class ClothFrameBuffer {
+	private static final int FRESH = 4; // set in middle when the middle frame has not been taken yet
+	private static final int HISTORY = 64;
+
+	public static class Frame {
+		private final float[] positions;
+		private long sequence;
+		private int dirtyFrom;
+		private int dirtyTo;
+		private int tornTriangleCount;
+
+		private Frame(final int pointCount) {
+			positions = new float[3*pointCount];
+		}
+
+		/**
+		 * @return x, y, z for each point, row by row, as in ClothSimulation.getPositions().
+		 */
+		public float[] getPositions() {
+			return positions;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return the first point that changed since the frame last passed to consumed().
+		 */
+		public int getDirtyFrom() {
+			return dirtyFrom;
+		}
+
+		/**
+		 * @return one past the last point that changed since the frame last passed to consumed().
+		 */
+		public int getDirtyTo() {
+			return dirtyTo;
+		}
+
+		/**
+		 * @return how many entries of ClothSimulation.getTornTriangles() were valid when the frame was published.
+		 */
+		public int getTornTriangleCount() {
+			return tornTriangleCount;
+		}
+	}
+
+	private final int pointCount;
+	private final Frame[] frames = new Frame[3];
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private final AtomicLong consumedSequence = new AtomicLong();
+	// Owned by the producer
+	private int back = 0;
+	private long sequence = 0;
+	private final int[] historyFrom = new int[HISTORY];
+	private final int[] historyTo = new int[HISTORY];
+	// Owned by the consumer
+	private int front = 2;
+
+	/**
+	 * Makes a buffer whose frames all hold the current positions of simulation, as sequence number 0.
+	 * The consumer is assumed to have copied those positions already.
+	 */
+	public ClothFrameBuffer(final ClothSimulation simulation) {
+		pointCount = simulation.getPointCount();
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = new Frame(pointCount);
+			simulation.copyPositionsTo(frames[i].positions, 0, pointCount);
+		}
+		simulation.clearDirty();
+	}
+
+	/**
+	 * Called by the producer after stepping simulation: copies the changed points into the back frame and publishes it.
+	 * Clears the dirty range of simulation.
+	 */
+	public void publish(final ClothSimulation simulation) {
+		sequence++;
+		final int h = (int) (sequence % HISTORY);
+		historyFrom[h] = simulation.getDirtyFrom();
+		historyTo[h] = simulation.getDirtyTo();
+		simulation.clearDirty();
+
+		final Frame frame = frames[back];
+		final long since = frame.sequence;
+		final int copyFrom = dirtyFromSince(since);
+		final int copyTo = dirtyToSince(since);
+		if (copyFrom < copyTo) {
+			simulation.copyPositionsTo(frame.positions, copyFrom, copyTo);
+		}
+		final long consumed = consumedSequence.get();
+		frame.dirtyFrom = dirtyFromSince(consumed);
+		frame.dirtyTo = dirtyToSince(consumed);
+		frame.sequence = sequence;
+		frame.tornTriangleCount = simulation.getTornTriangleCount();
+		back = middle.getAndSet(back | FRESH) & ~FRESH;
+	}
+
+	private int dirtyFromSince(final long since) {
+		if (sequence - since >= HISTORY) {
+			return 0;
+		}
+		int from = pointCount;
+		for (long s = since + 1; s <= sequence; s++) {
+			final int h = (int) (s % HISTORY);
+			if (historyFrom[h] < historyTo[h]) {
+				from = Math.min(from, historyFrom[h]);
+			}
+		}
+		return from;
+	}
+
+	private int dirtyToSince(final long since) {
+		if (sequence - since >= HISTORY) {
+			return pointCount;
+		}
+		int to = 0;
+		for (long s = since + 1; s <= sequence; s++) {
+			final int h = (int) (s % HISTORY);
+			if (historyFrom[h] < historyTo[h]) {
+				to = Math.max(to, historyTo[h]);
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Called by the consumer.
+	 * @return the most recently published frame, or null if nothing was published since the last call.
+	 * The frame is the consumer's until the next call to take().
+	 */
+	public Frame take() {
+		if ((middle.get() & FRESH) == 0) {
+			return null;
+		}
+		front = middle.getAndSet(front) & ~FRESH;
+		return frames[front];
+	}
+
+	/**
+	 * Called by the consumer once it has copied the dirty points of frame, so later frames only report later changes.
+	 */
+	public void consumed(final Frame frame) {
+		consumedSequence.set(frame.sequence);
+	}
+}
@@ -0,0 +1,32 @@
+package cloth;
+
+/**
+ * The per-point loops of ClothSimulation's explicit integrators, over its flat coordinate arrays, for implementations that
+ * do many points per instruction. Each method does a prefix of its range and returns where it stopped, and
+ * ClothSimulation does the rest with its scalar loops, so a kernel can leave out the tail (or everything, for cases it
+ * doesn't handle). A kernel must give bit-identical results to the scalar loops: the same operations, in the same order,
+ * without fused multiply-adds.
+ *
+ * The only implementation is VectorClothKernel, in src/main/java17, built on the incubating jdk.incubator.vector API of
+ * JDK 17 and later; see ClothSimulation.isVectorAvailable().
+ */
+interface ClothKernel {
+	/** The indices, in the arrays passed to integrate(), of each of the point arrays of ClothSimulation. */
+	int X = 0, Y = 1, Z = 2, PREVIOUS_X = 3, PREVIOUS_Y = 4, PREVIOUS_Z = 5, VELOCITY_X = 6, VELOCITY_Y = 7,
+			VELOCITY_Z = 8, FORCE_X = 9, FORCE_Y = 10, FORCE_Z = 11, WIND_X = 12, WIND_Y = 13, WIND_Z = 14, ARRAY_COUNT = 15;
+
+	/**
+	 * Like ClothSimulation.addSpringForces() with no torn springs, for points [from, end) with end <= to.
+	 * @return end
+	 */
+	int addSpringForces(double[] x, double[] y, double[] z, double[] forceX, double[] forceY, double[] forceZ, int from,
+			int to, int neighborDelta, double length, double fabricForceFactor, boolean linear, boolean both);
+
+	/**
+	 * Like ClothSimulation.integratePoints() with no pinned or sleeping points, for points [from, end) with end <= to.
+	 * @param arrays the point arrays, by the indices above
+	 * @return end
+	 */
+	int integrate(double[][] arrays, int from, int to, ClothSimulation.Integrator integrator,
+			double gravity, double timeDelta, double velocityRetained);
+}
@@ -1,16 +1,22 @@
 package cloth;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.collections.ObservableFloatArray;
 import javafx.event.EventHandler;
 import javafx.geometry.Point3D;
 import javafx.geometry.Pos;
@@ -23,8 +29,7 @@ import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
+import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
@@ -32,10 +37,7 @@ import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Material;
 import javafx.scene.paint.PhongMaterial;
-import javafx.scene.shape.CullFace;
 import javafx.scene.shape.Cylinder;
-import javafx.scene.shape.DrawMode;
-import javafx.scene.shape.MeshView;
 import javafx.scene.shape.ObservableFaceArray;
 import javafx.scene.shape.Sphere;
 import javafx.scene.shape.TriangleMesh;
@@ -46,36 +48,77 @@ import javafx.scene.transform.Rotate;
 import javafx.scene.transform.Translate;
 import javafx.stage.Stage;
 import javafx.util.Duration;
+import examples.Tube;
+import metrics.Metrics;
+import metrics.MetricsOverlay;
+import metrics.PhaseTimer;
 
 /**
  * Cloth model of 3d TriangleMesh in Javafx, with wind, gravity and spring forces between point masses.
  * The program is a JavaFX application with sliders for controlling the wind speed, the spring force, the gravity, 
  * and the simulation speed.
  * 
- * We set up an n x n grid of points (CPoint3D objects), each with a set of Springs.
- * The resting edge length of each spring is fixed to 40.   Deformations of the grid of points are resisted by the Spring objectss.
- * A variable wind blows on the cloth. See the method adjustPoint at the end of this file for the logic that determines forces.
- * In each iteration through the animation loop, the spring forces between points are updated and then the positions of the points
- * are updated, both in the CPoint3D objects and in the mesh's ObservableArray of floats representing the TriangleMesh.
+ * The physics lives in ClothSimulation, which has no JavaFX dependencies; this class only renders it.
+ * We set up a rows x cols grid (20 x 20 by default; see readParameters()) of point masses connected by springs, held in flat arrays (see ClothSimulation).
+ * The resting edge length of each spring is fixed to 40.   Deformations of the grid of points are resisted by the springs.
+ * A variable wind, sampled from a WindField, blows on the cloth. See the method ClothSimulation.integrateRows for the logic
+ * that determines forces.
+ * The simulation is stepped at a fixed rate on its own thread (see ClothSimulationThread), which publishes the positions of
+ * the points through a triple buffer. In each iteration through the animation loop, the latest positions are copied
+ * into the TriangleMesh of a ClothPanel. Extra cloths (see --panels in readParameters()) are stepped together with the main
+ * one on a shared pool, each shown by its own ClothPanel.
+ * With --record=file the main cloth is recorded (see ClothRecorder) as it runs; with --replay=file a recording is played
+ * back instead, with no physics, and can be scrubbed with the Frame slider or the , and . keys.
+ * With --subdivision=... (or the L key) a coarse simulation is shown with a smooth, finer mesh.
+ * The S key takes a snapshot of the cloth (see ClothSnapshot), Shift+R restores the latest one (at first, the starting
+ * state), the digit keys restore earlier ones, and Shift+S saves the latest to the --snapshot=... file.
+ * With --sleeping=true (or the Z key) parts of the cloths that have come to rest in still or steady air stop being stepped
+ * and uploaded until something disturbs them (see ClothSimulation.setSleeping()).
+ * The phases of each step and frame are timed into a Metrics (published as JMX MBeans); the F key, or --metrics=true,
+ * shows their timings over the last second in a MetricsOverlay.
  * 
- * There's a Spring between each point and its neighbor (if any) above, below, to the left and to the right.
- * In addition, to prevent ugly folding of the cloth, there are Springs between each point and neighbors 2, 3 and 5 edges to 
- * the left or right. See the method setUpSprings() for details on how that is done.
+ * There's a spring between each point and its neighbor (if any) above, below, to the left and to the right, and, to
+ * prevent ugly folding of the cloth, to the points 2, 3 and 5 along the row; --shear=true and --bend=true add more. See
+ * SpringStencil for how the springs are described.
  * 
- * To prevent extreme forces, the cumulative spring force is limited to magnitude 1.0 in adjustPoint.  This is to prevent wild fluctuations in the cloth.
+ * To prevent extreme forces, the cumulative spring force is limited to magnitude 1.0 in ClothSimulation.integratePoints().  This is to prevent wild fluctuations in the cloth.
  * The limit value could be tuned.
  * 
  * @author Donald A. Smith, ThinkerFeeler@gmail.com
  *
  */
 public class ClothMesh extends Application {
-	private final static int n = 20; //38;
+	private int rows = 20; //38; // Set with --rows=... on the command line or with the Rows slider
+	private int cols = 20; // Set with --cols=... on the command line or with the Cols slider
+	private final static int maxRowsOrCols = 512;
 	private final static double edgeLength = 40; // used for springs
-	private double windForceFactor = 0.56;
-	private double windCycleFactor = 0.04;
-	private double fabricForceFactor = 2.6; // If it's too high, the simulation gets jumpy.
-	private double gravity = 0.3048;
 	private double timeFactor = 57.2; //1.46;
+	private double stepsPerSecond = 60; // Set with --stepsPerSecond=... on the command line
+	private ClothSimulation.Integrator integrator = ClothSimulation.Integrator.EXPLICIT; // Set with --integrator=... or the I key
+	private int substeps = 0; // Set with --substeps=...; 0 means 8 for SYMPLECTIC_EULER and VERLET, and 1 otherwise
+	private int iterations = 10; // Set with --iterations=...; constraint iterations per step for XPBD
+	private double fixedTimeStep = 1.0; // Set with --timeStep=...
+	private boolean selfCollision = false; // Set with --selfCollision=true or toggled with the C key
+	private boolean showObstacles = false; // Set with --obstacles=true or toggled with the O key
+	private boolean tearing = false; // Set with --tearing=true or toggled with the X key
+	private double aerodynamicDrag = 0.0; // Set with --aerodynamicDrag=...; the A key toggles it between 0 and 1
+	private boolean multigrid = false; // Set with --multigrid=true or toggled with the M key; for IMPLICIT
+	private boolean sleeping = false; // Set with --sleeping=true or toggled with the Z key
+	private SpringStencil stencil = SpringStencil.DEFAULT; // Set with --shear=true and --bend=true
+	private int extraPanelCount = 0; // Set with --panels=...; small flags stepped alongside the main cloth
+	private int subdivision = 1; // Set with --subdivision=... or cycled through 1, 2 and 4 with the L key
+	private Path recordFile; // Set with --record=...
+	private Path replayFile; // Set with --replay=...
+	private ClothRecorder recorder;
+	private ClothReplay replay; // if not null, we show replay instead of the simulation
+	private float[] replayPositions;
+	private int replayFrame = -1; // the frame of replay that is shown
+	private double replayTime; // the simulation time we are replaying
+	private long lastReplayNanos = 0;
+	private Path snapshotFile = Paths.get("cloth-snapshot.bin"); // Set with --snapshot=..., which also loads it at start
+	private static final int maxSnapshots = 9;
+	// Snapshots of simulation, oldest first; taken on the simulation thread and restored from the JavaFX thread
+	private final List<ClothSnapshot> snapshots = new CopyOnWriteArrayList<>();
 	final static NumberFormat numberFormat = NumberFormat.getInstance();
 	//............
 	private final static int width = 1600;
@@ -98,190 +141,26 @@ public class ClothMesh extends Application {
 	private static final Point3D XAXIS = new Point3D(1, 0, 0);
 	private static final Point3D YAXIS = new Point3D(0, 1, 0);
 	private static final Point3D ZAXIS = new Point3D(0, 0, 1);
-	private TriangleMesh mesh = new TriangleMesh();
-	private final ObservableFloatArray points = mesh.getPoints();
-	private final ObservableFaceArray faces = mesh.getFaces();
-	private Image image = makeClothImageUsingN(); 
-		//new Image("file:imgs/mandala1.png"); 
-		//new Image("file:imgs/pattern.jpg");
-	private final MeshView meshView = new MeshView();
-	private final CPoint3D[][] pointsArray = new CPoint3D[n][n];
-	private final CPoint3D[][] savedPointsArray = new CPoint3D[n][n];
-	private final int[][] meshPointsLogicalIndexesMatrix = new int[n][n]; // this index is 1/3 the corresponding index in points Observable floats
-	//private final int[][] meshPointsRealIndexesMatrix = new int[n][n]; // this index is yhe index in points Observable floats
-
-	private double lastTime = 0.0;
+	private ClothSimulation simulation;
+	private ClothPanel panel; // shows simulation
+	private final List<ClothPanel> extraPanels = new ArrayList<>();
+	private final Group barGroup = new Group();
+	private final Group obstacleGroup = new Group();
+
 	private double lastTimeForTitle = 0.0;
+	private final Metrics metrics = new Metrics("ClothMesh");
+	private final PhaseTimer pulseIntervalTimer = metrics.timer("fx.pulseInterval");
+	private final PhaseTimer pulseTimer = metrics.allocationTimer("fx.pulse");
+	private final PhaseTimer meshUploadTimer = metrics.timer("fx.meshUpload");
+	private final MetricsOverlay metricsOverlay = new MetricsOverlay(metrics, 5);
+	private boolean showMetrics = false; // Set with --metrics=true or toggled with the F key
+	private ClothSimulationThread simulationThread;
 	private Stage primaryStage;
-	private final List<Spring> springs = new ArrayList<>(); // Springs are global and are updated between steps
-	private final MutableVector3D _force = new MutableVector3D();
 	private final Group gridGroup = new Group();
 	// -----------------------------------------
-	private static class MutableVector3D {
-		double x;
-		double y;
-		double z;
-		public void add(double x, double y, double z) {
-			this.x += x;
-			this.y += y;
-			this.z += z;
-		}
-		public void add(MutableVector3D other) {
-			x+= other.x;
-			y+= other.y;
-			z+= other.z;
-		}
-		public void subtract(MutableVector3D other) {
-			x-= other.x;
-			y-= other.y;
-			z-= other.z;
-		}
-		public void resetToZero() {
-			x = 0;
-			y = 0;
-			z = 0;
-		}
-		public double magnitude() {
-			return Math.sqrt(square(x)+square(y)+square(z));
-		}
-		public void multiplyBy(double d) {
-			x *= d;
-			y *= d;
-			z *= d;
-		}
-		@Override
-		public String toString() {
-			return "(" + x + ", " + y + ", " + z + ")";
-		}
-	}
-	private static double squareRetainSign(final double d) {
-		return Math.signum(d)*d*d;
-	}
-	/**
-	 * 
-	 * @author Don Smith
-	 * If there's a spring between P1 and P2 then, Spring exists on both their lists
-	 */
-	private class Spring {
-		final CPoint3D p1;
-		final CPoint3D p2;
-		// It always points in the direction of the difference vector between p1 and p2. We don't need sines and cosines!!!!!!!!!!!!!!!
-		final MutableVector3D forceVector = new MutableVector3D();
-		final double edgeLength;
-		public Spring(CPoint3D p1, CPoint3D p2, double edgeLength) {
-			this.p1 = p1;
-			this.p2 = p2;
-			this.edgeLength = edgeLength;
-		}
-		public void updateForce() {
-			final double distance = p1.distance(p2);
-			final double delta = distance-edgeLength;
-			final double f = -fabricForceFactor* squareRetainSign(delta);
-			forceVector.x = f*(p1.x-p2.x);
-			forceVector.y = f*(p1.y-p2.y);
-			forceVector.z = f*(p1.z-p2.z);
-		}
-		public void addForceP1(MutableVector3D force) {
-			force.add(forceVector);
-		}
-		public void addForceP2(MutableVector3D force) {
-			force.subtract(forceVector);
-		}
-	}
 	private static String format(double d) {
 		return numberFormat.format(d);
 	}
-	private class CPoint3D {
-		final int row;
-		final int col;
-		double x,y,z;
-		final List<Spring> springsP1 = new ArrayList<>();
-		final List<Spring> springsP2 = new ArrayList<>();
-		int meshPointRealIndex = -1; // set later to the index in ObservableFloatArray points of the float x three floats for x, y, z
-		public CPoint3D(double x, double y, double z, int row, int col) {
-			this.row = row;
-			this.col = col;
-			this.x = x;
-			this.y = y;
-			this.z = z;
-		}
-		public CPoint3D copy() {
-			CPoint3D copy = new CPoint3D(x,y,z,row,col);
-			copy.meshPointRealIndex = meshPointRealIndex;
-			copy.springsP1.addAll(springsP1);
-			copy.springsP2.addAll(springsP2);
-			return copy;
-		}
-		@Override
-		public String toString() {
-			return "(" + format(x) + ", " + format(y) + ", " + format(z) + ")";
-		}
-		public void applyToObservablePoints() {
-			points.set(meshPointRealIndex, (float) x);
-			points.set(1+meshPointRealIndex, (float) y);
-			points.set(2+meshPointRealIndex, (float) z);
-		}
-		public double getX() {
-			return x;
-		}
-		public double getY() {
-			return y;
-		}
-		public double getZ() {
-			return z;
-		}
-		public double distance(CPoint3D other) {
-			return Math.sqrt(square(x-other.x)+ square(y-other.y)+ square(z-other.z));
-		}
-		public void add(double xd, double yd, double zd) {
-			setX(this.x + xd);
-			setY(this.y + yd);
-			setZ(this.z + zd);
-		}
-		public void setX(double x) {
-			this.x = x;
-			points.set(meshPointRealIndex, (float)x);
-		}
-		public void setY(double y) {
-			this.y = y;
-			points.set(1+meshPointRealIndex, (float)y);
-		}
-		public void setZ(double z) {
-			this.z = z;
-			points.set(2+meshPointRealIndex, (float)z);
-		}
-		public double dotProduct(CPoint3D other) {
-			return x*other.x + y*other.y + z*other.z;
-		}
-		public double dotProduct(Point3D other) {
-			return x*other.getX() + y*other.getY() + z*other.getZ();
-		}
-		public double cosineOfAngleWith(CPoint3D other) {
-			return dotProduct(other)/(magnitude()*other.magnitude());
-		}
-		public double cosineOfAngleWith(Point3D other) {
-			return dotProduct(other)/(magnitude()*other.magnitude());
-		}
-		public double magnitude() {
-			return Math.sqrt(x*x+y*y+z*z);
-		}
-		public void addSpring(Spring spring) {
-			if (this == spring.p1) {
-				springsP1.add(spring);
-			} else {
-				springsP2.add(spring);
-			}
-		}
-		public void addSpringForcesToArgument(final MutableVector3D force) {
-			for(Spring spring: springsP1) {
-				spring.addForceP1(force);
-			}
-			for(Spring spring: springsP2) {
-				spring.addForceP2(force);
-			}
-		}
-	
-	}
 	// -----------------------------------------
 	static {
 	}
@@ -367,11 +246,11 @@ public class ClothMesh extends Application {
 
 	private void startOrStop() {
 		stopAnimation = !stopAnimation;
+		simulationThread.setPaused(stopAnimation || replay != null);
 		if (stopAnimation) {
 			runStopSphere.setMaterial(redMaterial);
 		} else {
 			runStopSphere.setMaterial(greenMaterial);
-			lastTime = 1e-9* System.nanoTime();
 		}
 	}
 	private void handleMouse(Scene scene) {
@@ -407,26 +286,6 @@ public class ClothMesh extends Application {
 			}
 		});
 	}
-	private Image makeClothImageUsingN() {
-		final int c=10;
-		int width=n*c;
-		int height=n*c;
-		final WritableImage image = new WritableImage(width,height);
-		final PixelWriter pixelWriter = image.getPixelWriter();
-		double hue = 0.0;
-		for(int row=0;row<n;row++) {
-			for(int col=0;col<n;col++) {
-				for(int y=row*c;y < (1+row)*c; y++) {
-					for(int x=col*c; x < (col+1)*c; x++) {
-						pixelWriter.setColor(y, x, Color.hsb(hue, 0.5, 0.9));
-					}
-				}
-				hue+= 23.3;
-			}
-		}
-		return image;
-	}
-	
 	private void reset() {
 		cameraXform.t.setZ(0);
 		cameraXform.rx.setAngle(0);
@@ -439,8 +298,8 @@ public class ClothMesh extends Application {
 		world.rz.setAngle(0);
 		world.ry.setAngle(-40);
 		world.t.setX(-200);
-		world.t.setY(-7*n);
-		world.t.setZ(60*n);
+		world.t.setY(-7*rows);
+		world.t.setZ(60*Math.max(rows, cols));
 	}
 
 	private void handleKeyEvents(Scene scene) {
@@ -458,68 +317,123 @@ public class ClothMesh extends Application {
 					} else {
 						timeFactor /= 1.1;
 					}
+					simulationThread.setTimeFactor(timeFactor);
 					System.out.println("timeFactor = " + timeFactor);
 					break;
 				case INSERT:
-					windForceFactor*= f2;
-					System.out.println("windForceFactor = " + windForceFactor);
+					simulation.setWindForceFactor(simulation.getWindForceFactor() * f2);
+					System.out.println("windForceFactor = " + simulation.getWindForceFactor());
 					break;
 				case DELETE:
-					windForceFactor/= f2;
-					System.out.println("windForceFactor = " + windForceFactor);
+					simulation.setWindForceFactor(simulation.getWindForceFactor() / f2);
+					System.out.println("windForceFactor = " + simulation.getWindForceFactor());
 					break;
 				case HOME:
-					windCycleFactor *= f2;
-					System.out.println("windCycleFactor = " + windCycleFactor);
+					simulation.setWindCycleFactor(simulation.getWindCycleFactor() * f2);
+					System.out.println("windCycleFactor = " + simulation.getWindCycleFactor());
 					break;
 				case END:
-					windCycleFactor /= f2;
-					System.out.println("windCycleFactor = " + windCycleFactor);
+					simulation.setWindCycleFactor(simulation.getWindCycleFactor() / f2);
+					System.out.println("windCycleFactor = " + simulation.getWindCycleFactor());
 					break;
 				case PAGE_UP:
-					fabricForceFactor *= f2;
-					System.out.println("fabricForceFactor = " + fabricForceFactor);
+					simulation.setFabricForceFactor(simulation.getFabricForceFactor() * f2);
+					System.out.println("fabricForceFactor = " + simulation.getFabricForceFactor());
 					break;
 				case PAGE_DOWN:
-					fabricForceFactor /= f2;
-					System.out.println("fabricForceFactor = " + fabricForceFactor);
+					simulation.setFabricForceFactor(simulation.getFabricForceFactor() / f2);
+					System.out.println("fabricForceFactor = " + simulation.getFabricForceFactor());
 					break;
 				case G:
 					if (ke.isControlDown()) {
 						gridGroup.setVisible(!gridGroup.isVisible());
 					} else if (ke.isShiftDown()) {
-						gravity *= 1.1;
+						simulation.setGravity(simulation.getGravity() * 1.1);
 					} else {
-						gravity /= 1.1;
+						simulation.setGravity(simulation.getGravity() / 1.1);
+					}
+					System.out.println("gravity = " + simulation.getGravity());
+					break;
+				case I: {
+					final ClothSimulation.Integrator[] integrators = ClothSimulation.Integrator.values();
+					integrator = integrators[(integrator.ordinal() + (ke.isShiftDown() ? integrators.length - 1 : 1)) % integrators.length];
+					final ClothSimulation.Integrator next = integrator;
+					final ClothSimulation current = simulation;
+					simulationThread.invokeLater(() -> applyIntegrator(current, next));
+					System.out.println("integrator = " + integrator);
+					break;
+				}
+				case O:
+					showObstacles = !showObstacles;
+					buildObstacles();
+					break;
+				case X:
+					simulation.setTearing(!simulation.isTearing());
+					System.out.println("tearing = " + simulation.isTearing());
+					break;
+				case A:
+					simulation.setAerodynamicDrag(simulation.getAerodynamicDrag() > 0 ? 0 : Math.max(1, aerodynamicDrag));
+					System.out.println("aerodynamicDrag = " + simulation.getAerodynamicDrag());
+					break;
+				case M:
+					multigrid = !multigrid;
+					simulation.setMultigrid(multigrid);
+					System.out.println("multigrid = " + multigrid);
+					break;
+				case L:
+					subdivision = subdivision >= 4 ? 1 : 2*subdivision;
+					panel.setSubdivision(subdivision);
+					System.out.println("subdivision = " + subdivision);
+					break;
+				case Z:
+					sleeping = !sleeping;
+					simulation.setSleeping(sleeping);
+					for (ClothPanel extraPanel : extraPanels) {
+						extraPanel.getSimulation().setSleeping(sleeping);
 					}
-					System.out.println("gravity = " + gravity);
+					System.out.println("sleeping = " + sleeping);
+					break;
+				case C:
+					simulation.setSelfCollision(!simulation.isSelfCollision());
+					System.out.println("selfCollision = " + simulation.isSelfCollision());
 					break;
 				case SPACE:
 					startOrStop();
 					break;
+				case COMMA:
+				case PERIOD:
+					if (replay != null) {
+						final int frame = replayFrame + (ke.getCode() == KeyCode.PERIOD ? 1 : -1);
+						seekReplay(Math.max(0, Math.min(replay.getFrameCount() - 1, frame)));
+					}
+					break;
 				case R:
 					if (ke.isShiftDown()) {
-						try {
-						for(int row=0;row<n;row++) {
-							for(int col=0;col<n;col++) {
-								pointsArray[row][col].x=savedPointsArray[row][col].x;
-								pointsArray[row][col].y=savedPointsArray[row][col].y;
-								pointsArray[row][col].z=savedPointsArray[row][col].z;
-								pointsArray[row][col].applyToObservablePoints();
-							}
-						} } catch (Exception exc) {
-							exc.printStackTrace();
-						}
+						restoreSnapshot(snapshots.size() - 1);
 					}
 					reset();
 					break;
+				case S:
+					if (ke.isShiftDown()) {
+						writeSnapshot();
+					} else {
+						final ClothSimulation current = simulation;
+						simulationThread.invokeLater(() -> addSnapshot(current.snapshot()));
+					}
+					break;
+				case DIGIT1: case DIGIT2: case DIGIT3: case DIGIT4: case DIGIT5: case DIGIT6: case DIGIT7: case DIGIT8: case DIGIT9:
+					restoreSnapshot(ke.getCode().ordinal() - KeyCode.DIGIT1.ordinal());
+					break;
+				case F:
+					metricsOverlay.setVisible(!metricsOverlay.isVisible());
+					break;
 				case W:
 					if (ke.isShiftDown()) {
-						windForceFactor *= 1.1;
+						simulation.setWindForceFactor(simulation.getWindForceFactor() * 1.1);
 					} else {
-						windForceFactor /= 1.1;
+						simulation.setWindForceFactor(simulation.getWindForceFactor() / 1.1);
 					}
-					System.out.println("windForceFactor = " + format(windForceFactor));
+					System.out.println("windForceFactor = " + format(simulation.getWindForceFactor()));
 					break;
 				case LEFT:
 					world.setTranslateX(world.getTranslateX() + f);
@@ -635,14 +549,22 @@ public class ClothMesh extends Application {
 		VBox vbox = new VBox(20);
 		vbox.setTranslateX(320);
 		vbox.setTranslateY(-20);
-		HBox windSlider = makeSliderGroup("Wind",0,5,0.56, () -> windForceFactor, d -> {windForceFactor=d;});
-		HBox springSlider = makeSliderGroup("Spring",0,5,2.6, () -> fabricForceFactor, d -> {fabricForceFactor=d;});
-		HBox gravitySlider = makeSliderGroup("Gravity",0,1,0.3, () -> gravity, d -> {gravity=d;});
-		HBox timeSlider = makeSliderGroup("Time",0,10,5.7, () -> 0.1*timeFactor, d -> {timeFactor=10*d;});
+		HBox windSlider = makeSliderGroup("Wind",0,5,0.56, () -> simulation.getWindForceFactor(), d -> {simulation.setWindForceFactor(d);});
+		HBox springSlider = makeSliderGroup("Spring",0,5,2.6, () -> simulation.getFabricForceFactor(), d -> {simulation.setFabricForceFactor(d);});
+		HBox gravitySlider = makeSliderGroup("Gravity",0,1,0.3, () -> simulation.getGravity(), d -> {simulation.setGravity(d);});
+		HBox timeSlider = makeSliderGroup("Time",0,10,5.7, () -> 0.1*timeFactor, d -> {timeFactor=10*d; simulationThread.setTimeFactor(timeFactor);});
+		HBox rowsSlider = makeSliderGroup("Rows",2,maxRowsOrCols,rows, () -> 0.0+rows, d -> {resizeCloth(d.intValue(), cols);});
+		HBox colsSlider = makeSliderGroup("Cols",2,maxRowsOrCols,cols, () -> 0.0+cols, d -> {resizeCloth(rows, d.intValue());});
 		vbox.getChildren().add(windSlider);
 		vbox.getChildren().add(springSlider);
 		vbox.getChildren().add(gravitySlider);
 		vbox.getChildren().add(timeSlider);
+		vbox.getChildren().add(rowsSlider);
+		vbox.getChildren().add(colsSlider);
+		if (replay != null) {
+			vbox.getChildren().add(makeSliderGroup("Frame", 0, replay.getFrameCount() - 1, 0, () -> 0.0 + Math.max(0, replayFrame),
+					d -> {seekReplay(d.intValue());}));
+		}
 		vbox.setScaleX(0.75);
 		vbox.setScaleY(0.75);
 		root.getChildren().add(vbox);
@@ -651,8 +573,24 @@ public class ClothMesh extends Application {
 	@Override
 	public void start(Stage primaryStage) throws Exception {
 		this.primaryStage = primaryStage;
+		readParameters();
+		openReplay();
+		final ClothSnapshot loaded = readSnapshot();
+		simulation = new ClothSimulation(rows, cols, edgeLength, stencil);
+		simulation.setFixedTimeStep(fixedTimeStep);
+		simulation.setSelfCollision(selfCollision);
+		simulation.setTearing(tearing);
+		simulation.setAerodynamicDrag(aerodynamicDrag);
+		simulation.setSleeping(sleeping);
+		applyIntegrator(simulation, integrator);
+		if (loaded != null) {
+			simulation.restore(loaded);
+			integrator = loaded.getIntegrator();
+			multigrid = loaded.isMultigrid();
+			sleeping = loaded.isSleeping();
+		}
+		addSnapshot(simulation.snapshot());
 		changeTooltipDefaults();
-		mesh.setVertexFormat(VertexFormat.POINT_TEXCOORD);
 		sphereMaterial1.setDiffuseColor(new Color(1, 0, 0, 1.0));
 		redMaterial.setDiffuseColor(Color.RED);
 		greenMaterial.setDiffuseColor(Color.GREEN);
@@ -672,14 +610,14 @@ public class ClothMesh extends Application {
 		//gridGroup.setVisible(false);
 		world.getChildren().add(gridGroup);
 
-		meshView.setCullFace(CullFace.NONE);
-		meshView.setDrawMode(DrawMode.FILL);
-		meshView.setMesh(mesh);
-
-		world.getChildren().add(meshView);
-		buildCloth();
+		panel = new ClothPanel(simulation, 0.0);
+		panel.setSubdivision(subdivision);
+		world.getChildren().add(panel.getMeshView());
+		world.getChildren().add(barGroup);
+		world.getChildren().add(obstacleGroup);
 		buildBar();
-		setUpSprings();
+		buildExtraPanels();
+		buildObstacles();
 		
 		runStopSphere.setTranslateX(-167);
 		runStopSphere.setTranslateY(-3);
@@ -689,228 +627,518 @@ public class ClothMesh extends Application {
 
 		AmbientLight light = new AmbientLight(Color.ANTIQUEWHITE);
 		root.getChildren().add(light);
+		metricsOverlay.getNode().setTranslateX(-175);
+		metricsOverlay.getNode().setTranslateY(0);
+		metricsOverlay.setVisible(showMetrics);
+		root.getChildren().add(metricsOverlay.getNode());
+		metrics.registerMBeans();
 		scene.setCamera(camera);
 		primaryStage.show();
 		animate();
 
 	}
+
 	/**
-	 * 
-	 * @param p
-	 * @return index for use in faces array = 1/3 the "real" index in CPoint3D.meshPointRealIndex
+	 * Reads the optional named parameters --rows=... and --cols=..., each between 2 and maxRowsOrCols, and
+	 * --stepsPerSecond=..., the rate at which the simulation thread steps the cloth.
+	 * --integrator=EXPLICIT|SYMPLECTIC_EULER|VERLET|XPBD|IMPLICIT, --substeps=..., --timeStep=... and --iterations=... (for XPBD)
+	 * choose how ClothSimulation integrates. --selfCollision=true stops the cloth passing through itself, and
+	 * --obstacles=true puts a ball and a Tube in the cloth's way. --tearing=true lets overstretched springs break.
+	 * --panels=... adds that many small flags behind the cloth. --aerodynamicDrag=... makes the wind push on the faces of the
+	 * cloth (see ClothSimulation.setAerodynamicDrag()). --record=... records the cloth into a file, and --replay=... plays
+	 * such a file back instead of simulating. --snapshot=... names the file that Shift+S saves a snapshot to (by default
+	 * cloth-snapshot.bin), and that the cloth starts from if it exists and agrees with --rows, --cols and --integrator, if
+	 * given. --subdivision=... renders the cloth with a mesh that many times finer than the
+	 * simulated grid (see ClothPanel.setSubdivision()). --multigrid=true preconditions the IMPLICIT solve with a multigrid
+	 * V-cycle (see ClothSimulation.setMultigrid()). --sleeping=true lets resting tiles of the cloths sleep (see
+	 * ClothSimulation.setSleeping()). --shear=true and --bend=true add diagonal and two-row springs to the main cloth
+	 * (see SpringStencil). --metrics=true shows the timings of the phases of each frame from the
+	 * start.
 	 */
-	private int getOrSetLogicalIndex(CPoint3D p) {
-		if (p.meshPointRealIndex < 0) {
-			p.meshPointRealIndex = points.size();
-			meshPointsLogicalIndexesMatrix[p.row][p.col] = points.size()/3;
-			points.addAll((float) p.getX(), (float) p.getY(), (float) p.getZ());
+	private void readParameters() {
+		final Map<String, String> named = getParameters().getNamed();
+		rows = readRowsOrCols(named, "rows", rows);
+		cols = readRowsOrCols(named, "cols", cols);
+		if (named.containsKey("stepsPerSecond")) {
+			try {
+				stepsPerSecond = Math.max(1, Double.parseDouble(named.get("stepsPerSecond")));
+			} catch (NumberFormatException exc) {
+				System.err.println("Ignoring --stepsPerSecond=" + named.get("stepsPerSecond") + ": " + exc.getMessage());
+			}
+		}
+		if (named.containsKey("integrator")) {
+			try {
+				integrator = ClothSimulation.Integrator.valueOf(named.get("integrator").trim().toUpperCase());
+			} catch (IllegalArgumentException exc) {
+				System.err.println("Ignoring --integrator=" + named.get("integrator") + ": " + exc.getMessage());
+			}
+		}
+		if (named.containsKey("substeps")) {
+			try {
+				substeps = Math.max(1, Integer.parseInt(named.get("substeps").trim()));
+			} catch (NumberFormatException exc) {
+				System.err.println("Ignoring --substeps=" + named.get("substeps") + ": " + exc.getMessage());
+			}
+		}
+		selfCollision = Boolean.parseBoolean(named.get("selfCollision"));
+		showObstacles = Boolean.parseBoolean(named.get("obstacles"));
+		tearing = Boolean.parseBoolean(named.get("tearing"));
+		multigrid = Boolean.parseBoolean(named.get("multigrid"));
+		sleeping = Boolean.parseBoolean(named.get("sleeping"));
+		if (Boolean.parseBoolean(named.get("shear"))) {
+			stencil = stencil.withShear();
+		}
+		if (Boolean.parseBoolean(named.get("bend"))) {
+			stencil = stencil.withBend();
+		}
+		showMetrics = Boolean.parseBoolean(named.get("metrics"));
+		if (named.containsKey("panels")) {
+			try {
+				extraPanelCount = Math.max(0, Integer.parseInt(named.get("panels").trim()));
+			} catch (NumberFormatException exc) {
+				System.err.println("Ignoring --panels=" + named.get("panels") + ": " + exc.getMessage());
+			}
+		}
+		if (named.containsKey("record")) {
+			recordFile = Paths.get(named.get("record"));
+		}
+		if (named.containsKey("replay")) {
+			replayFile = Paths.get(named.get("replay"));
+		}
+		if (named.containsKey("subdivision")) {
+			try {
+				subdivision = Math.max(1, Math.min(16, Integer.parseInt(named.get("subdivision").trim())));
+			} catch (NumberFormatException exc) {
+				System.err.println("Ignoring --subdivision=" + named.get("subdivision") + ": " + exc.getMessage());
+			}
+		}
+		if (named.containsKey("snapshot")) {
+			snapshotFile = Paths.get(named.get("snapshot"));
+		}
+		if (named.containsKey("aerodynamicDrag")) {
+			try {
+				aerodynamicDrag = Math.max(0, Double.parseDouble(named.get("aerodynamicDrag")));
+			} catch (NumberFormatException exc) {
+				System.err.println("Ignoring --aerodynamicDrag=" + named.get("aerodynamicDrag") + ": " + exc.getMessage());
+			}
+		}
+		if (named.containsKey("iterations")) {
+			try {
+				iterations = Math.max(1, Integer.parseInt(named.get("iterations").trim()));
+			} catch (NumberFormatException exc) {
+				System.err.println("Ignoring --iterations=" + named.get("iterations") + ": " + exc.getMessage());
+			}
+		}
+		if (named.containsKey("timeStep")) {
+			try {
+				final double value = Double.parseDouble(named.get("timeStep"));
+				if (value > 0) {
+					fixedTimeStep = value;
+				}
+			} catch (NumberFormatException exc) {
+				System.err.println("Ignoring --timeStep=" + named.get("timeStep") + ": " + exc.getMessage());
+			}
 		}
-		return p.meshPointRealIndex/3;
 	}
 
+	/**
+	 * The linear springs of SYMPLECTIC_EULER and VERLET are too stiff for one step per time unit, so unless --substeps was
+	 * given they take 8 substeps per fixed step. XPBD and IMPLICIT are stable with one.
+	 * Must be called on the thread that steps the simulation.
+	 */
+	private void applyIntegrator(final ClothSimulation simulation, final ClothSimulation.Integrator integrator) {
+		final boolean stiff = integrator == ClothSimulation.Integrator.SYMPLECTIC_EULER || integrator == ClothSimulation.Integrator.VERLET;
+		simulation.setIntegrator(integrator);
+		simulation.setSubsteps(substeps > 0 ? substeps : stiff ? 8 : 1);
+		simulation.setIterations(iterations);
+		simulation.setMultigrid(multigrid);
+	}
+
+	/**
+	 * Opens replayFile, if given, and sizes the cloth for it. The extra panels and the recorder are off while replaying.
+	 */
+	private void openReplay() {
+		if (replayFile == null) {
+			return;
+		}
+		try {
+			final ClothReplay opened = new ClothReplay(replayFile);
+			if (opened.getFrameCount() == 0) {
+				opened.close();
+				System.err.println("Ignoring --replay=" + replayFile + ": it has no frames");
+				return;
+			}
+			replay = opened;
+		} catch (IOException exc) {
+			System.err.println("Ignoring --replay=" + replayFile + ": " + exc.getMessage());
+			return;
+		}
+		rows = replay.getRows();
+		cols = replay.getCols();
+		replayPositions = new float[3*rows*cols];
+		replayTime = replay.getTime(0);
+		extraPanelCount = 0;
+		recordFile = null;
+		System.out.println("Replaying " + replay.getFrameCount() + " frames of a " + rows + " x " + cols + " cloth from " + replayFile);
+	}
 
-	private void addTriangleToMesh(CPoint3D p1, CPoint3D p2, CPoint3D p3, int t1, int t2, int t3) {
-		int i1 = getOrSetLogicalIndex(p1);
-		int i2 = getOrSetLogicalIndex(p2);
-		int i3 = getOrSetLogicalIndex(p3);
-		faces.addAll(i1, t1, i2, t2, i3, t3);
+	/**
+	 * Shows frame of the replay, and replays on from there.
+	 */
+	private void seekReplay(final int frame) {
+		replayTime = replay.getTime(frame);
+		showReplayFrame(frame);
 	}
 
-	public int getMeshPointsRealIndex(int row, int col) {
-		return pointsArray[row][col].meshPointRealIndex;
+	private void showReplayFrame(final int frame) {
+		if (frame == replayFrame) {
+			return;
+		}
+		replay.readPositions(frame, replayPositions);
+		final long start = System.nanoTime();
+		panel.show(replayPositions, replay.getTornTriangles(), replay.getTornTriangleCount(frame));
+		meshUploadTimer.stop(start);
+		replayFrame = frame;
 	}
-	private static Point3D makePoint3D(CPoint3D p) {
-		return new Point3D(p.x,p.y,p.z);
+
+	/**
+	 * Advances the replay by the time since the last call, at timeFactor simulation time units per second like the live
+	 * simulation, and shows the frame for that time. Loops back to the first frame at the end.
+	 */
+	private void animateReplay(final long nowInNanoSeconds) {
+		if (!stopAnimation && lastReplayNanos != 0) {
+			replayTime += timeFactor*(nowInNanoSeconds - lastReplayNanos)*1E-9;
+			if (replayTime > replay.getTime(replay.getFrameCount() - 1)) {
+				replayTime = replay.getTime(0);
+			}
+		}
+		lastReplayNanos = nowInNanoSeconds;
+		showReplayFrame(replay.frameAt(replayTime));
 	}
+
+	/**
+	 * @return the snapshot in snapshotFile, if --snapshot=... was given, the file exists, it's not replaying, and the
+	 * snapshot agrees with the command line, after sizing the cloth for it; otherwise null
+	 */
+	private ClothSnapshot readSnapshot() {
+		final Map<String, String> named = getParameters().getNamed();
+		if (replay != null || !named.containsKey("snapshot") || !Files.exists(snapshotFile)) {
+			return null;
+		}
+		try {
+			final ClothSnapshot snapshot = ClothSnapshot.read(snapshotFile);
+			if (snapshot.getRows() > maxRowsOrCols || snapshot.getCols() > maxRowsOrCols) {
+				System.err.println("Ignoring " + snapshotFile + ": its cloth is larger than " + maxRowsOrCols + " x " + maxRowsOrCols);
+				return null;
+			}
+			String mismatch = snapshot.getMismatch(snapshot.getRows(), snapshot.getCols(), edgeLength, stencil);
+			if (mismatch == null && named.containsKey("rows") && snapshot.getRows() != rows) {
+				mismatch = "it has " + snapshot.getRows() + " rows, not " + rows;
+			} else if (mismatch == null && named.containsKey("cols") && snapshot.getCols() != cols) {
+				mismatch = "it has " + snapshot.getCols() + " cols, not " + cols;
+			} else if (mismatch == null && named.containsKey("integrator") && snapshot.getIntegrator() != integrator) {
+				mismatch = "it uses the " + snapshot.getIntegrator() + " integrator, not " + integrator;
+			}
+			if (mismatch != null) {
+				System.err.println("Ignoring " + snapshotFile + ": " + mismatch);
+				return null;
+			}
+			rows = snapshot.getRows();
+			cols = snapshot.getCols();
+			System.out.println("Starting from the snapshot in " + snapshotFile + " at time " + format(snapshot.getTime()));
+			return snapshot;
+		} catch (IOException exc) {
+			System.err.println("Ignoring " + snapshotFile + ": " + exc.getMessage());
+			return null;
+		}
+	}
+
+	private void writeSnapshot() {
+		final ClothSnapshot snapshot = snapshots.get(snapshots.size() - 1);
+		try {
+			snapshot.write(snapshotFile);
+			System.out.println("Saved the snapshot at time " + format(snapshot.getTime()) + " to " + snapshotFile);
+		} catch (IOException exc) {
+			System.err.println("Could not save to " + snapshotFile + ": " + exc.getMessage());
+		}
+	}
+
+	/**
+	 * Keeps snapshot as the latest, forgetting the oldest but the first if there are more than maxSnapshots.
+	 */
+	private void addSnapshot(final ClothSnapshot snapshot) {
+		if (snapshots.size() == maxSnapshots) {
+			snapshots.remove(1);
+		}
+		snapshots.add(snapshot);
+		System.out.println("snapshot " + snapshots.size() + " at time " + format(snapshot.getTime()));
+	}
+
+	/**
+	 * Restores the snapshot at index of snapshots, if there is one, on the simulation thread. Stops any recording.
+	 */
+	private void restoreSnapshot(final int index) {
+		if (index < 0 || index >= snapshots.size()) {
+			return;
+		}
+		final ClothSnapshot snapshot = snapshots.get(index);
+		final ClothSimulation current = simulation;
+		integrator = snapshot.getIntegrator();
+		multigrid = snapshot.isMultigrid();
+		sleeping = snapshot.isSleeping();
+		if (recorder != null) {
+			simulationThread.stop();
+			closeRecorder(); // a recording only goes forward in time
+			startSimulationThread();
+		}
+		simulationThread.invokeLater(() -> current.restore(snapshot));
+		System.out.println("Restored snapshot " + (index + 1) + " at time " + format(snapshot.getTime()));
+	}
+
+	private void closeRecorder() {
+		if (recorder == null) {
+			return;
+		}
+		try {
+			recorder.close();
+			System.out.println("Recorded " + recorder.getFrameCount() + " frames to " + recordFile);
+		} catch (IOException exc) {
+			System.err.println("Could not finish " + recordFile + ": " + exc.getMessage());
+		}
+		recorder = null;
+		recordFile = null;
+	}
+
+	private static int readRowsOrCols(final Map<String, String> named, final String name, final int defaultValue) {
+		final String value = named.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Math.max(2, Math.min(maxRowsOrCols, Integer.parseInt(value.trim())));
+		} catch (NumberFormatException exc) {
+			System.err.println("Ignoring --" + name + "=" + value + ": " + exc.getMessage());
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Replaces the simulation with a new rows x cols cloth with the same parameters, and rebuilds the mesh for it.
+	 * Stops any recording, and does nothing while replaying.
+	 */
+	private void resizeCloth(final int newRows, final int newCols) {
+		if ((newRows == rows && newCols == cols) || replay != null) {
+			return;
+		}
+		final ClothSimulation old = simulation;
+		simulationThread.stop();
+		closeRecorder(); // a recording holds one size of cloth
+		rows = newRows;
+		cols = newCols;
+		simulation = new ClothSimulation(rows, cols, edgeLength, old.getStencil());
+		simulation.copyParametersFrom(old);
+		snapshots.clear(); // they are of the old size
+		addSnapshot(simulation.snapshot());
+		panel.setSimulation(simulation);
+		buildBar();
+		buildObstacles();
+		startSimulationThread();
+		System.out.println("rows = " + rows + ", cols = " + cols + ", springs = " + simulation.getSpringCount());
+	}
+
 	private void buildBar() {
-		CPoint3D left = pointsArray[0][0];
-		CPoint3D right = pointsArray[0][n-1];
-		Point3D pLeft = makePoint3D(left);
-		Point3D pRight = makePoint3D(right);
+		Point3D pLeft = new Point3D(simulation.getX(0, 0), simulation.getY(0, 0), simulation.getZ(0, 0));
+		Point3D pRight = new Point3D(simulation.getX(0, cols-1), simulation.getY(0, cols-1), simulation.getZ(0, cols-1));
 		Image image = new Image("file:imgs/wood6.jpg");
 		PhongMaterial material = new PhongMaterial();
 		material.setDiffuseMap(image);
 		Cylinder bar = createCylinderBetween(pLeft,pRight, 3, material);
 		
 		Sphere s1 = new Sphere(5);
-		s1.setTranslateX(left.x);
-		s1.setTranslateY(left.y);
-		s1.setTranslateZ(left.z);
+		s1.setTranslateX(pLeft.getX());
+		s1.setTranslateY(pLeft.getY());
+		s1.setTranslateZ(pLeft.getZ());
 		s1.setMaterial(material);
 		Sphere s2 = new Sphere(5);
-		s2.setTranslateX(right.x);
-		s2.setTranslateY(right.y);
-		s2.setTranslateZ(right.z);
+		s2.setTranslateX(pRight.getX());
+		s2.setTranslateY(pRight.getY());
+		s2.setTranslateZ(pRight.getZ());
 		s2.setMaterial(material);
-		world.getChildren().addAll(bar,s1,s2);
+		barGroup.getChildren().setAll(bar,s1,s2);
 	}
 	
-	private void buildCloth() {
-		
-		for (int row = 0; row < n; row++) {
-			for (int col = 0; col < n; col++) {
-				double x = edgeLength * col;
-				double y = edgeLength * row;
-				double z = 0;
-				CPoint3D p = new CPoint3D(x, y, z, row, col);
-				pointsArray[row][col] = p;
-			}
-		}
-		for (int row = 0; row < n; row++) {
-			for (int col = 0; col < n; col++) {
-				getOrSetLogicalIndex(pointsArray[row][col]);
-			}
-		}
-// 0 3 6 9 12 15 18 21 24 27 30 33 36 39 42 45 48 51 54 57 
-//60 63 66 69 72 75 78 81 84 87 90 93 96 99 102 105 108 111 114 117 		
-		for (int row = 0; row < n - 1; row++) {
-			for (int col = 0; col < n - 1; col++) {
-				CPoint3D topLeft = pointsArray[col][row];
-				CPoint3D bottomLeft = pointsArray[col + 1][row];
-				CPoint3D bottomRight = pointsArray[col + 1][row + 1];
-				CPoint3D topRight = pointsArray[col][row + 1];
-				int t = col * n + row;
-				addTriangleToMesh(topLeft, bottomLeft, bottomRight, t, t + n, t + n + 1);
-				addTriangleToMesh(topLeft, topRight, bottomRight, t, t + 1, t + n + 1);
-			}
-		}
-		for (int col = 0; col < n; col++) {
-			double v = (0.0 + col) / n;
-			for (int row = 0; row < n; row++) {
-				double u = (0.0 + row) / n;
-				mesh.getTexCoords().addAll((float) u, (float) v);
-			}
+	/**
+	 * If showObstacles, shows a ball in front of the cloth and a Tube behind it, scaled to the cloth, and makes the
+	 * simulation collide with them; otherwise removes them.
+	 */
+	private void buildObstacles() {
+		if (!showObstacles) {
+			obstacleGroup.getChildren().clear();
+			simulation.setObstacles(Collections.<Obstacle>emptyList());
+			return;
 		}
-		PhongMaterial meshViewMaterial = new PhongMaterial();
-		meshViewMaterial.setDiffuseMap(image);
-		meshView.setMaterial(meshViewMaterial);
+		final double clothWidth = edgeLength*(cols-1);
+		final double clothHeight = edgeLength*(rows-1);
+		final double radius = 0.2*clothWidth;
+		final Sphere ball = new Sphere(radius);
+		ball.setTranslateX(0.5*clothWidth);
+		ball.setTranslateY(0.5*clothHeight);
+		ball.setTranslateZ(1.2*radius);
+		ball.setMaterial(new PhongMaterial(Color.STEELBLUE));
+		final Tube tube = new Tube(new Point3D(-0.2*clothWidth, 0.8*clothHeight, -edgeLength),
+				new Point3D(1.2*clothWidth, 0.8*clothHeight, -edgeLength), 32, edgeLength, new PhongMaterial(Color.DARKKHAKI));
+		obstacleGroup.getChildren().setAll(ball, tube);
+		final List<Obstacle> obstacles = new ArrayList<>();
+		obstacles.add(new Obstacle.Sphere(ball.getTranslateX(), ball.getTranslateY(), ball.getTranslateZ(), radius));
+		obstacles.add(toObstacle((TriangleMesh) tube.getMesh()));
+		simulation.setObstacles(obstacles);
 	}
-//0 3 6 9 12 15 18 21 24 27 30 33 36 39 42 45 48 51 54 57 
-//60 63 66 69 72 75 78 81 84 87 90 93 96 99 102 105 108 111 114 117 	
-	private float getX(final int col, final int row) {
-		//return points.get(getMeshPointsRealIndex(row,col));
-		return points.get(3*(row*n+col));
-	}
-	private float getY(final int col, final int row) {
-		//return points.get(1+getMeshPointsRealIndex(row,col));
-		return points.get(1+3*(row*n+col));
+
+	/**
+	 * @return an obstacle with the triangles of mesh, in the mesh's own coordinates
+	 */
+	private static Obstacle toObstacle(final TriangleMesh mesh) {
+		final VertexFormat format = mesh.getVertexFormat();
+		final int stride = format.getVertexIndexSize();
+		final int offset = format.getPointIndexOffset();
+		final ObservableFaceArray meshFaces = mesh.getFaces();
+		final int[] triangles = new int[meshFaces.size() / stride];
+		for (int v = 0; v < triangles.length; v++) {
+			triangles[v] = meshFaces.get(v*stride + offset);
+		}
+		return new Obstacle.Mesh(mesh.getPoints().toArray(null), triangles);
 	}
-	private float getZ(final int col, final int row) {
-		//return points.get(2+getMeshPointsRealIndex(row,col));
-		return points.get(2+3*(row*n+col));
+
+	/**
+	 * Adds extraPanelCount small flags behind the main cloth, four to a row, each with its own wind. They are stepped with
+	 * the main cloth on its pool (see ClothSimulationGroup) but otherwise keep their own parameters.
+	 */
+	private void buildExtraPanels() {
+		for (int i = 0; i < extraPanelCount; i++) {
+			final ClothSimulation flag = new ClothSimulation(12, 18, 20);
+			flag.setWindForceFactor(simulation.getWindForceFactor() * (0.5 + 0.25*(i % 5)));
+			flag.setWindCycleFactor(simulation.getWindCycleFactor() * (0.75 + 0.125*(i % 4)));
+			flag.setFixedTimeStep(fixedTimeStep);
+			flag.setAerodynamicDrag(aerodynamicDrag);
+			flag.setSleeping(sleeping);
+			applyIntegrator(flag, integrator);
+			final ClothPanel flagPanel = new ClothPanel(flag, 37.0*(i+1));
+			flagPanel.getMeshView().setTranslateX(450*(i % 4) - 450);
+			flagPanel.getMeshView().setTranslateZ(800 + 500*(i / 4));
+			extraPanels.add(flagPanel);
+			world.getChildren().add(flagPanel.getMeshView());
+		}
 	}
-	
-	private void setX(final int col, final int row, final double d) {
-		//points.set(getMeshPointsRealIndex(row,col), (float)d);
-		points.set(3*(row*n+col), (float) d);
-	}
-	private void setY(final int col, final int row, final double d) {
-//		points.set(1+getMeshPointsRealIndex(row,col), (float)d);
-		points.set(1+3*(row*n+col), (float) d);
-	}
-	private void setZ(final int col, final int row, final double d) {
-//		points.set(2+getMeshPointsRealIndex(row,col), (float)d);
-		points.set(2+3*(row*n+col), (float) d);
-	}
-
-	private void setUpSprings() {
-		// make vertical springs
-		for (int row = 1; row < n; row++) {
-			for (int col = 0; col < n; col++) {
-				CPoint3D thisPoint = pointsArray[row][col];
-				CPoint3D abovePoint = pointsArray[row - 1][col];
-				Spring spring = new Spring(thisPoint, abovePoint, edgeLength);
-				springs.add(spring);
-				thisPoint.addSpring(spring);
-				abovePoint.addSpring(spring);
+
+	/**
+	 * Starts a thread that steps the main simulation and those of the extra panels together; animate() copies the frames it
+	 * publishes into the panels. First copies the current positions into all panels, since each new frame buffer assumes it.
+	 */
+	private void startSimulationThread() {
+		final List<ClothSimulation> simulations = new ArrayList<>();
+		panel.showAllPositions();
+		simulations.add(simulation);
+		for (ClothPanel extraPanel : extraPanels) {
+			extraPanel.showAllPositions();
+			simulations.add(extraPanel.getSimulation());
+		}
+		simulationThread = new ClothSimulationThread(new ClothSimulationGroup(simulations, simulation.getPool()), stepsPerSecond,
+				timeFactor);
+		simulationThread.setPaused(stopAnimation || replay != null);
+		simulationThread.setMetrics(metrics);
+		for (ClothSimulation each : simulations) {
+			each.setMetrics(metrics);
+		}
+		if (recordFile != null && recorder == null) {
+			try {
+				recorder = new ClothRecorder(recordFile, rows, cols);
+				simulationThread.setRecorder(recorder);
+				System.out.println("Recording to " + recordFile);
+			} catch (IOException exc) {
+				System.err.println("Not recording to " + recordFile + ": " + exc.getMessage());
+				recordFile = null;
 			}
 		}
-		// make horizontal springs
-		// To stop vertical folding, make springs between this point and leftLeftPoint
-		// make horizontal springs
-		final int deltaXs[] = {1,2,3,5};
-		for(int deltaX:deltaXs)
-		for (int row = 0; row < n; row++) {
-			for (int col = deltaX; col < n; col++) {
-				CPoint3D thisPoint = pointsArray[row][col];
-				CPoint3D leftPoint = pointsArray[row][col - deltaX];
-				Spring spring = new Spring(thisPoint, leftPoint, deltaX * edgeLength);
-				springs.add(spring);
-				thisPoint.addSpring(spring);
-				leftPoint.addSpring(spring);
+		simulationThread.start();
+	}
 
-			}
+	@Override
+	public void stop() {
+		if (simulationThread != null) {
+			simulationThread.stop();
 		}
-		// diagonal springs?
-		
-		for (int row = 0; row < n; row++) {
-			for (int col = 0; col < n; col++) {
-				savedPointsArray[row][col]=pointsArray[row][col].copy();
+		closeRecorder();
+		metrics.unregisterMBeans();
+		if (replay != null) {
+			try {
+				replay.close();
+			} catch (IOException exc) {
+				System.err.println(exc.getMessage());
 			}
 		}
 	}
 	
 	//-----------------------------
-	private int cntr = 0;
+	private long lastFrameCount = 0;
+	private long lastStepCount = 0;
+	private long lastPulse = 0;
 	private void animate() {
 		numberFormat.setMinimumFractionDigits(3);
 		numberFormat.setMaximumFractionDigits(3);
+		startSimulationThread();
 		final AnimationTimer timer = new AnimationTimer() {
 			@Override
 			public void handle(long nowInNanoSeconds) {
-				if (stopAnimation) {
-					return;
+				if (lastPulse != 0) {
+					pulseIntervalTimer.record(nowInNanoSeconds - lastPulse);
 				}
-				cntr++;
-				for(Spring spring:springs) {
-					spring.updateForce();
+				lastPulse = nowInNanoSeconds;
+				final long pulseStart = pulseTimer.start();
+				if (replay != null) {
+					animateReplay(nowInNanoSeconds);
+				} else {
+					final ClothFrameBuffer frames = simulationThread.getFrames();
+					final ClothFrameBuffer.Frame frame = frames.take();
+					if (frame != null) {
+						final long start = System.nanoTime();
+						panel.show(frame);
+						meshUploadTimer.stop(start);
+						frames.consumed(frame);
+					}
 				}
-				final double seconds = nowInNanoSeconds*1E-9;
-				if (lastTime == 0.0) {
-					lastTime = seconds;
-					return;
+				for (int i = 0; i < extraPanels.size(); i++) {
+					final ClothFrameBuffer extraFrames = simulationThread.getFrames(i+1);
+					final ClothFrameBuffer.Frame extraFrame = extraFrames.take();
+					if (extraFrame != null) {
+						extraPanels.get(i).show(extraFrame);
+						extraFrames.consumed(extraFrame);
+					}
 				}
-				final double timeDelta = seconds-lastTime;
+				final double seconds = nowInNanoSeconds*1E-9;
 				final double timeDeltaForTitle = seconds-lastTimeForTitle;
 				if (timeDeltaForTitle>1.0) {
-					primaryStage.setTitle(numberFormat.format(cntr/timeDeltaForTitle) + " per second");
-					lastTimeForTitle = seconds;
-					cntr=0;
-				}
-				lastTime = seconds;
-			
-				for(int row=0;row<n; row++) {
-					for(int col=0;col<n;col++) {
-						if (row>0 || (col!=0 && col!=n-1)) {
-							adjustPoint(row, col, timeFactor*seconds, timeFactor*timeDelta);
-						}						
+					final long stepCount = simulationThread.getStepCount();
+					final long steps = stepCount >= lastStepCount ? stepCount - lastStepCount : stepCount; // the thread restarts on resize
+					final long frameCount = meshUploadTimer.getCount();
+					final long frames = frameCount >= lastFrameCount ? frameCount - lastFrameCount : frameCount; // reset over JMX
+					if (replay != null) {
+						primaryStage.setTitle("Replaying frame " + replayFrame + " of " + replay.getFrameCount() + ", "
+								+ numberFormat.format(frames/timeDeltaForTitle) + " frames per second");
+					} else {
+						primaryStage.setTitle(numberFormat.format(steps/timeDeltaForTitle) + " steps per second, "
+								+ numberFormat.format(frames/timeDeltaForTitle) + " frames per second"
+								+ (sleeping ? ", " + simulation.getAsleepTileCount() + " of " + simulation.getTileCount() + " tiles asleep" : ""));
 					}
+					lastTimeForTitle = seconds;
+					lastStepCount = stepCount;
+					lastFrameCount = frameCount;
 				}
+				metricsOverlay.update(nowInNanoSeconds);
+				pulseTimer.stop(pulseStart);
 			} //handle
 		}; // timer
 		timer.start();
 	}	
 	
-	// https://graphics.stanford.edu/~mdfisher/cloth.html
-	
-	private void adjustPoint(final int row, final int col, final double time,  final double timeDelta) {
-		final CPoint3D thisPoint = pointsArray[row][col];
-		_force.resetToZero();
-		thisPoint.addSpringForcesToArgument(_force);
-		
-		final double magnitude=_force.magnitude();
-		if (magnitude>1) { // TODO: this is a hack to stop extreme values
-			_force.multiplyBy(1.0/magnitude);
-		}
-		_force.y += gravity;
-		
-		// I could take into consideration the angle between the wind and the piece of cloth
-	// (sin(x*y*t), cos(z*t), sin(cos(5*x*y*z))
-		double windForceX = windForceFactor*Math.sin(0.3*windCycleFactor*time); //windForceFactor*Math.sin(windCycleFactor*thisPoint.x*thisPoint.y*time);
-		double windForceY = 0; //windForceFactor*Math.cos(windCycleFactor*thisPoint.z*time);
-		double windForceZ = 3.3*windForceFactor*(Math.sin(windCycleFactor*time+0.1*col));
-		_force.add(windForceX,windForceY, windForceZ);
-		thisPoint.add(timeDelta*_force.x, timeDelta*_force.y, timeDelta*_force.z);
-	}
 	
 }
@@ -0,0 +1,258 @@
+package cloth;
+
+import javafx.collections.ObservableFloatArray;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.CullFace;
+import javafx.scene.shape.DrawMode;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.ObservableFaceArray;
+import javafx.scene.shape.TriangleMesh;
+import javafx.scene.shape.VertexFormat;
+
+/**
+ * The JavaFX view of one ClothSimulation: a MeshView whose TriangleMesh has one point per simulated point, in the same
+ * row-major order as ClothSimulation.getPositions(), so the logical index of the point at (row, col) is row*cols+col.
+ * Must be used on the JavaFX thread.
+ *
+ * With setSubdivision(factor) above 1, the mesh is instead a grid factor times finer than the simulation, refined from the
+ * simulated points by a ClothRefiner each frame, so a coarse (cheap) simulation is shown as a smooth cloth. The refined
+ * points go into a buffer allocated once per size, and a torn triangle removes all the fine triangles that cover it.
+ */
+class ClothPanel {
+	private final TriangleMesh mesh = new TriangleMesh();
+	private final ObservableFloatArray points = mesh.getPoints();
+	private final ObservableFaceArray faces = mesh.getFaces();
+	private final MeshView meshView = new MeshView();
+	private final double startHue;
+	private ClothSimulation simulation;
+	private int subdivision = 1;
+	private ClothRefiner refiner; // null if subdivision is 1
+	private float[] coarsePoints; // the simulated positions we last showed
+	private float[] meshPoints; // what we last published to points: coarsePoints itself, or refined from it
+	private int tornTrianglesShown = 0; // how many of tornTriangles we removed from faces
+	private int[] tornTriangles = new int[0]; // the torn triangles of the last frame shown
+
+	/**
+	 * @param startHue the hue of the top left square of the cloth's checkered image
+	 */
+	ClothPanel(final ClothSimulation simulation, final double startHue) {
+		this.startHue = startHue;
+		mesh.setVertexFormat(VertexFormat.POINT_TEXCOORD);
+		meshView.setCullFace(CullFace.NONE);
+		meshView.setDrawMode(DrawMode.FILL);
+		meshView.setMesh(mesh);
+		setSimulation(simulation);
+	}
+
+	MeshView getMeshView() {
+		return meshView;
+	}
+
+	ClothSimulation getSimulation() {
+		return simulation;
+	}
+
+	/**
+	 * Shows simulation instead, rebuilding the mesh for its size. The simulation must not be stepping.
+	 */
+	void setSimulation(final ClothSimulation simulation) {
+		this.simulation = simulation;
+		coarsePoints = new float[3*simulation.getPointCount()];
+		tornTriangles = new int[0];
+		buildMesh();
+		showAllPositions();
+		PhongMaterial meshViewMaterial = new PhongMaterial();
+		meshViewMaterial.setDiffuseMap(makeClothImage(simulation.getRows(), simulation.getCols()));
+		meshView.setMaterial(meshViewMaterial);
+	}
+
+	int getSubdivision() {
+		return subdivision;
+	}
+
+	/**
+	 * Shows the cloth with a mesh subdivision times finer than the simulation in each direction (1 for the simulated
+	 * points only), starting from the positions last shown.
+	 */
+	void setSubdivision(final int subdivision) {
+		if (subdivision < 1) {
+			throw new IllegalArgumentException("subdivision must be at least 1: " + subdivision);
+		}
+		if (subdivision == this.subdivision) {
+			return;
+		}
+		this.subdivision = subdivision;
+		final int tornTriangleCount = tornTrianglesShown;
+		buildMesh();
+		refine();
+		points.setAll(meshPoints);
+		removeTornTriangles(tornTriangles, tornTriangleCount);
+	}
+
+	/**
+	 * Sizes the points, texture coordinates and faces of the mesh for the simulation and subdivision.
+	 */
+	private void buildMesh() {
+		final int rows = simulation.getRows();
+		final int cols = simulation.getCols();
+		refiner = subdivision > 1 ? new ClothRefiner(rows, cols, subdivision) : null;
+		final int meshRows = refiner != null ? refiner.getFineRows() : rows;
+		final int meshCols = refiner != null ? refiner.getFineCols() : cols;
+		meshPoints = refiner != null ? new float[3*meshRows*meshCols] : coarsePoints;
+		// texture coordinate row*meshCols+col is (col/cols, row/rows), in units of simulated points
+		final float[] texCoords = new float[2*meshRows*meshCols];
+		int t = 0;
+		for (int row = 0; row < meshRows; row++) {
+			float v = (0.0f + row) / (subdivision*rows);
+			for (int col = 0; col < meshCols; col++) {
+				float u = (0.0f + col) / (subdivision*cols);
+				texCoords[t++] = u;
+				texCoords[t++] = v;
+			}
+		}
+		mesh.getTexCoords().setAll(texCoords);
+		buildFaces();
+	}
+
+	private void buildFaces() {
+		final int rows = refiner != null ? refiner.getFineRows() : simulation.getRows();
+		final int cols = refiner != null ? refiner.getFineCols() : simulation.getCols();
+		final int[] faceArray = new int[12*(rows-1)*(cols-1)];
+		int f = 0;
+		for (int row = 0; row < rows - 1; row++) {
+			for (int col = 0; col < cols - 1; col++) {
+				final int topLeft = row * cols + col;
+				final int bottomLeft = topLeft + cols;
+				final int bottomRight = bottomLeft + 1;
+				final int topRight = topLeft + 1;
+				final int t = topLeft;
+				faceArray[f++] = topLeft; faceArray[f++] = t; faceArray[f++] = bottomLeft; faceArray[f++] = t + cols; faceArray[f++] = bottomRight; faceArray[f++] = t + cols + 1;
+				faceArray[f++] = topLeft; faceArray[f++] = t; faceArray[f++] = topRight; faceArray[f++] = t + 1; faceArray[f++] = bottomRight; faceArray[f++] = t + cols + 1;
+			}
+		}
+		faces.setAll(faceArray);
+		tornTrianglesShown = 0;
+	}
+
+	private Image makeClothImage(final int rows, final int cols) {
+		final int c=Math.max(1, Math.min(10, 2048/Math.max(rows, cols))); // keep the image at most 2048 pixels wide
+		int width=cols*c;
+		int height=rows*c;
+		final WritableImage image = new WritableImage(width,height);
+		final PixelWriter pixelWriter = image.getPixelWriter();
+		double hue = startHue;
+		for(int row=0;row<rows;row++) {
+			for(int col=0;col<cols;col++) {
+				for(int y=row*c;y < (1+row)*c; y++) {
+					for(int x=col*c; x < (col+1)*c; x++) {
+						pixelWriter.setColor(x, y, Color.hsb(hue, 0.5, 0.9));
+					}
+				}
+				hue+= 23.3;
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Copies all the current positions of the simulation into the mesh and clears its dirty range, e.g. before a
+	 * ClothFrameBuffer is made for it. The simulation must not be stepping.
+	 */
+	void showAllPositions() {
+		simulation.copyPositionsTo(coarsePoints, 0, simulation.getPointCount());
+		simulation.clearDirty();
+		refine();
+		points.setAll(meshPoints);
+	}
+
+	private void refine() {
+		if (refiner != null) {
+			refiner.refine(coarsePoints, meshPoints);
+		}
+	}
+
+	/**
+	 * Shows frame, a frame of the simulation taken from its ClothFrameBuffer. If the simulation has fewer torn triangles
+	 * than before (it was restored from a ClothSnapshot), the faces are rebuilt first.
+	 */
+	void show(final ClothFrameBuffer.Frame frame) {
+		copyPositionsToMesh(frame);
+		if (frame.getTornTriangleCount() < tornTrianglesShown) {
+			buildFaces();
+		}
+		removeTornTriangles(simulation.getTornTriangles(), frame.getTornTriangleCount());
+	}
+
+	/**
+	 * Shows a recorded frame (see ClothReplay), which may be earlier than the one shown: all of positions, and the cloth
+	 * without the first tornTriangleCount of tornTriangles.
+	 */
+	void show(final float[] positions, final int[] tornTriangles, final int tornTriangleCount) {
+		System.arraycopy(positions, 0, coarsePoints, 0, coarsePoints.length);
+		refine();
+		points.set(0, meshPoints, 0, meshPoints.length);
+		if (tornTriangleCount < tornTrianglesShown) {
+			buildFaces();
+		}
+		removeTornTriangles(tornTriangles, tornTriangleCount);
+	}
+
+	/**
+	 * Publishes the points that changed since the last call to the mesh, with a single bulk set, so the mesh
+	 * fires one change notification per frame instead of one per coordinate. When subdivided, a change anywhere refines
+	 * and publishes the whole mesh.
+	 */
+	private void copyPositionsToMesh(final ClothFrameBuffer.Frame frame) {
+		final int from = frame.getDirtyFrom();
+		final int to = frame.getDirtyTo();
+		if (from < to) {
+			System.arraycopy(frame.getPositions(), 3*from, coarsePoints, 3*from, 3*(to-from));
+			if (refiner != null) {
+				refiner.refine(coarsePoints, meshPoints);
+				points.set(0, meshPoints, 0, meshPoints.length);
+			} else {
+				points.set(3*from, meshPoints, 3*from, 3*(to-from));
+			}
+		}
+	}
+
+	/**
+	 * Removes the triangles torn[tornTrianglesShown .. tornTriangleCount-1], the ones that tore since the last call, by
+	 * collapsing each one in place to a single point, so the face array keeps its layout and a tear costs one small set
+	 * instead of a rebuild of all the faces.
+	 */
+	private void removeTornTriangles(final int[] torn, final int tornTriangleCount) {
+		tornTriangles = torn;
+		final int[] collapsed = new int[6];
+		for (; tornTrianglesShown < tornTriangleCount; tornTrianglesShown++) {
+			final int triangle = torn[tornTrianglesShown];
+			if (refiner == null) {
+				faces.set(6*triangle, collapsed, 0, 6);
+				continue;
+			}
+			// Triangle 0 of a cell is below its diagonal, and triangle 1 above it. The fine cells of the cell below its
+			// diagonal are wholly below it, and those on the diagonal are split the same way.
+			final int cols = simulation.getCols();
+			final int fineCols = refiner.getFineCols();
+			final int cell = triangle / 2;
+			final boolean lower = triangle % 2 == 0;
+			final int top = subdivision*(cell / (cols-1));
+			final int left = subdivision*(cell % (cols-1));
+			for (int i = 0; i < subdivision; i++) {
+				for (int j = 0; j < subdivision; j++) {
+					final int fineTriangle = 2*((top+i)*(fineCols-1) + left+j);
+					if (i == j) {
+						faces.set(6*(fineTriangle + (lower ? 0 : 1)), collapsed, 0, 6);
+					} else if (lower == (i > j)) {
+						faces.set(6*fineTriangle, collapsed, 0, 6);
+						faces.set(6*(fineTriangle+1), collapsed, 0, 6);
+					}
+				}
+			}
+		}
+	}
+}
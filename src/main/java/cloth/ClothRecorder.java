@@ -0,0 +1,116 @@
+package cloth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the positions of a cloth to a binary file, one frame per call to record(), for playback with ClothReplay.
+ *
+ * The file is little-endian. It starts with a header of HEADER_SIZE bytes: the int MAGIC, the int VERSION, then the ints
+ * rows, cols, frame count and torn triangle count. Frame f follows at HEADER_SIZE + f * frameSize(rows, cols): the
+ * simulation time (a double), the number of torn triangles at that time (an int), 4 bytes of padding, and x, y, z of each
+ * point as floats, row by row. After the last frame come the torn triangles (ints) in the order they tore, as in
+ * ClothSimulation.getTornTriangles(), so that a frame's triangles are the first of them. Because every frame has the same
+ * size and the frames' times increase, a reader can map the file and go straight to any frame, or search it by time.
+ * The counts in the header are written by close().
+ *
+ * Each frame is written with one FileChannel write from a direct buffer, allocated once.
+ */
+public class ClothRecorder implements Closeable {
+	static final int MAGIC = 0x434c5448; // "CLTH"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 24;
+	static final int FRAME_HEADER_SIZE = 16;
+	private final FileChannel channel;
+	private final int rows;
+	private final int cols;
+	private final ByteBuffer frame;
+	private final float[] positions;
+	private int frameCount = 0;
+	private int[] tornTriangles = new int[0];
+	private int tornTriangleCount = 0;
+	private double lastTime = Double.NEGATIVE_INFINITY; // the time of the last frame
+
+	/**
+	 * Creates (or replaces) file, for frames of a rows x cols cloth.
+	 */
+	public ClothRecorder(final Path file, final int rows, final int cols) throws IOException {
+		this.rows = rows;
+		this.cols = cols;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		frame = ByteBuffer.allocateDirect(frameSize(rows, cols)).order(ByteOrder.LITTLE_ENDIAN);
+		positions = new float[3*rows*cols];
+		writeHeader();
+	}
+
+	/**
+	 * @return the size in bytes of each frame of a rows x cols cloth
+	 */
+	static int frameSize(final int rows, final int cols) {
+		return FRAME_HEADER_SIZE + 12*rows*cols;
+	}
+
+	private void writeHeader() throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols).putInt(frameCount).putInt(tornTriangleCount);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+	}
+
+	/**
+	 * Appends the current positions of simulation as a frame. Must be called on the thread that steps the simulation,
+	 * between steps, with the simulation's time later than at the last call.
+	 */
+	public void record(final ClothSimulation simulation) throws IOException {
+		if (simulation.getRows() != rows || simulation.getCols() != cols) {
+			throw new IllegalArgumentException("Recording a " + rows + " x " + cols + " cloth, not " + simulation.getRows()
+					+ " x " + simulation.getCols());
+		}
+		final double time = simulation.getTime();
+		if (!(time > lastTime)) {
+			throw new IllegalArgumentException("The time " + time + " is not after the last frame's, " + lastTime);
+		}
+		simulation.copyPositionsTo(positions, 0, rows*cols);
+		tornTriangles = simulation.getTornTriangles();
+		tornTriangleCount = simulation.getTornTriangleCount();
+		frame.clear();
+		frame.putDouble(time).putInt(tornTriangleCount).putInt(0);
+		frame.asFloatBuffer().put(positions);
+		frame.position(0).limit(frame.capacity());
+		final long offset = HEADER_SIZE + (long) frameCount*frame.capacity();
+		while (frame.hasRemaining()) {
+			channel.write(frame, offset + frame.position());
+		}
+		frameCount++;
+		lastTime = time;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Writes the torn triangles after the frames, fills in the header and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			final ByteBuffer torn = ByteBuffer.allocate(4*tornTriangleCount).order(ByteOrder.LITTLE_ENDIAN);
+			torn.asIntBuffer().put(tornTriangles, 0, tornTriangleCount);
+			final long offset = HEADER_SIZE + (long) frameCount*frame.capacity();
+			while (torn.hasRemaining()) {
+				channel.write(torn, offset + torn.position());
+			}
+			writeHeader();
+		} finally {
+			channel.close();
+		}
+	}
+}
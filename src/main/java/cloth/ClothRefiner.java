@@ -0,0 +1,93 @@
+package cloth;
+
+/**
+ * Refines the positions of a rows x cols cloth into a smooth (factor*(rows-1)+1) x (factor*(cols-1)+1) grid for rendering,
+ * so a coarse simulation can be shown as a fine mesh. The fine grid passes through the simulated points (fine point
+ * (factor*row, factor*col) is coarse point (row, col)), and between them follows Catmull-Rom splines, which are bicubic
+ * across each cell and have continuous tangents across cells. At the border, the missing neighbor is taken to be the
+ * border point itself.
+ *
+ * The interpolation is separable: a pass along each coarse row, into a rows x fineCols buffer, then a pass along each fine
+ * column. Each sub-position between two points has 4 fixed weights, computed once. All buffers are allocated once, so
+ * refine() allocates nothing.
+ */
+final class ClothRefiner {
+	private final int rows;
+	private final int cols;
+	private final int factor;
+	private final int fineRows;
+	private final int fineCols;
+	private final float[] weights; // 4 per sub-position s in [0, factor): the weights of points c-1, c, c+1, c+2
+	private final float[] rowPass; // 3 floats per point of the rows x fineCols intermediate grid
+
+	ClothRefiner(final int rows, final int cols, final int factor) {
+		if (factor < 1) {
+			throw new IllegalArgumentException("factor must be at least 1: " + factor);
+		}
+		this.rows = rows;
+		this.cols = cols;
+		this.factor = factor;
+		fineRows = factor*(rows-1) + 1;
+		fineCols = factor*(cols-1) + 1;
+		weights = new float[4*factor];
+		for (int s = 0; s < factor; s++) {
+			final double t = (double) s / factor;
+			final double t2 = t*t;
+			final double t3 = t2*t;
+			weights[4*s] = (float) (0.5*(-t3 + 2*t2 - t));
+			weights[4*s+1] = (float) (0.5*(3*t3 - 5*t2 + 2));
+			weights[4*s+2] = (float) (0.5*(-3*t3 + 4*t2 + t));
+			weights[4*s+3] = (float) (0.5*(t3 - t2));
+		}
+		rowPass = new float[3*rows*fineCols];
+	}
+
+	int getFineRows() {
+		return fineRows;
+	}
+
+	int getFineCols() {
+		return fineCols;
+	}
+
+	/**
+	 * Writes into fine (3 * getFineRows() * getFineCols() floats) the refined grid of coarse (3 * rows * cols floats,
+	 * x, y, z per point, row by row).
+	 */
+	void refine(final float[] coarse, final float[] fine) {
+		for (int row = 0; row < rows; row++) {
+			interpolate(coarse, 3*row*cols, 3, cols, rowPass, 3*row*fineCols, 3);
+		}
+		for (int fineCol = 0; fineCol < fineCols; fineCol++) {
+			interpolate(rowPass, 3*fineCol, 3*fineCols, rows, fine, 3*fineCol, 3*fineCols);
+		}
+	}
+
+	/**
+	 * Interpolates a line of count points, the first at from[fromOffset], each fromStride floats after the last, into
+	 * factor*(count-1)+1 points, the first at to[toOffset], each toStride floats after the last.
+	 */
+	private void interpolate(final float[] from, final int fromOffset, final int fromStride, final int count,
+			final float[] to, final int toOffset, final int toStride) {
+		int t = toOffset;
+		for (int c = 0; c < count - 1; c++) {
+			final int p0 = fromOffset + Math.max(0, c-1)*fromStride;
+			final int p1 = fromOffset + c*fromStride;
+			final int p2 = p1 + fromStride;
+			final int p3 = fromOffset + Math.min(count-1, c+2)*fromStride;
+			for (int s = 0; s < factor; s++, t += toStride) {
+				final float w0 = weights[4*s];
+				final float w1 = weights[4*s+1];
+				final float w2 = weights[4*s+2];
+				final float w3 = weights[4*s+3];
+				to[t] = w0*from[p0] + w1*from[p1] + w2*from[p2] + w3*from[p3];
+				to[t+1] = w0*from[p0+1] + w1*from[p1+1] + w2*from[p2+1] + w3*from[p3+1];
+				to[t+2] = w0*from[p0+2] + w1*from[p1+2] + w2*from[p2+2] + w3*from[p3+2];
+			}
+		}
+		final int last = fromOffset + (count-1)*fromStride;
+		to[t] = from[last];
+		to[t+1] = from[last+1];
+		to[t+2] = from[last+2];
+	}
+}
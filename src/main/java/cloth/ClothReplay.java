@@ -0,0 +1,153 @@
+package cloth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays back a file written by ClothRecorder, with no physics: the file is memory-mapped, so reading any frame, in any
+ * order, is a copy out of the page cache. Files larger than a single mapping can hold are mapped in chunks of whole frames.
+ *
+ * readPositions() may be called from any number of threads.
+ */
+public class ClothReplay implements Closeable {
+	private static final long CHUNK_SIZE = 1L << 30;
+	private final FileChannel channel;
+	private final int rows;
+	private final int cols;
+	private final int frameCount;
+	private final int frameSize;
+	private final int framesPerChunk;
+	private final MappedByteBuffer[] chunks;
+	private final double[] times;
+	private final int[] tornTriangleCounts;
+	private final int[] tornTriangles;
+
+	public ClothReplay(final Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(ClothRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(header, 0);
+			if (header.remaining() < ClothRecorder.HEADER_SIZE || header.getInt() != ClothRecorder.MAGIC) {
+				throw new IOException(file + " is not a cloth recording");
+			}
+			final int version = header.getInt();
+			if (version != ClothRecorder.VERSION) {
+				throw new IOException(file + " is a version " + version + " cloth recording; only version "
+						+ ClothRecorder.VERSION + " is supported");
+			}
+			rows = header.getInt();
+			cols = header.getInt();
+			frameCount = header.getInt();
+			final int tornTriangleCount = header.getInt();
+			frameSize = ClothRecorder.frameSize(rows, cols);
+			final long framesEnd = ClothRecorder.HEADER_SIZE + (long) frameCount*frameSize;
+			if (rows < 2 || cols < 2 || frameCount < 0 || tornTriangleCount < 0
+					|| channel.size() < framesEnd + 4L*tornTriangleCount) {
+				throw new IOException(file + " is truncated or was not closed by its recorder");
+			}
+			framesPerChunk = (int) Math.max(1, CHUNK_SIZE / frameSize);
+			chunks = new MappedByteBuffer[(frameCount + framesPerChunk - 1) / framesPerChunk];
+			for (int c = 0; c < chunks.length; c++) {
+				final int frames = Math.min(framesPerChunk, frameCount - c*framesPerChunk);
+				chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+						ClothRecorder.HEADER_SIZE + (long) c*framesPerChunk*frameSize, (long) frames*frameSize);
+				chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+			}
+			times = new double[frameCount];
+			tornTriangleCounts = new int[frameCount];
+			for (int f = 0; f < frameCount; f++) {
+				final ByteBuffer chunk = chunks[f / framesPerChunk];
+				final int offset = (f % framesPerChunk)*frameSize;
+				times[f] = chunk.getDouble(offset);
+				tornTriangleCounts[f] = chunk.getInt(offset + 8);
+			}
+			final ByteBuffer torn = ByteBuffer.allocate(4*tornTriangleCount).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(torn, framesEnd);
+			tornTriangles = new int[tornTriangleCount];
+			torn.asIntBuffer().get(tornTriangles);
+		} catch (IOException | RuntimeException exc) {
+			channel.close();
+			throw exc;
+		}
+	}
+
+	// Reads from position until buffer is full or the file ends, then flips buffer.
+	private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+		while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+		}
+		buffer.flip();
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return the simulation time of frame
+	 */
+	public double getTime(final int frame) {
+		return times[frame];
+	}
+
+	/**
+	 * @return the last frame whose time is at most time, or 0 if there is none
+	 */
+	public int frameAt(final double time) {
+		int low = 0;
+		int high = frameCount - 1;
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			if (times[middle] <= time) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return how many of getTornTriangles() had torn at frame
+	 */
+	public int getTornTriangleCount(final int frame) {
+		return tornTriangleCounts[frame];
+	}
+
+	/**
+	 * @return all the triangles that tore during the recording, in the order they tore, numbered as in
+	 * ClothSimulation.getTornTriangles(). Don't modify it.
+	 */
+	public int[] getTornTriangles() {
+		return tornTriangles;
+	}
+
+	/**
+	 * Copies x, y, z of each point of frame, row by row, into dest, which must hold 3 * rows * cols floats.
+	 */
+	public void readPositions(final int frame, final float[] dest) {
+		final ByteBuffer chunk = chunks[frame / framesPerChunk].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		chunk.position((frame % framesPerChunk)*frameSize + ClothRecorder.FRAME_HEADER_SIZE);
+		final FloatBuffer positions = chunk.asFloatBuffer();
+		positions.get(dest, 0, 3*rows*cols);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,1788 @@
+package cloth;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import metrics.Metrics;
+import metrics.PhaseTimer;
+
+/**
+ * Headless cloth physics: a rows x cols grid of point masses connected by springs, pulled by gravity and a variable wind.
+ * This class has no JavaFX dependencies, so it can be stepped, profiled and benchmarked without a window.
+ *
+ * The wind comes from a WindField around the cloth, evaluated once per step and sampled at each point. With
+ * setAerodynamicDrag() above 0, each triangle of the cloth also feels the part of the wind (relative to its own motion)
+ * that blows against its face, so a cloth edge-on to the wind barely moves, and one facing it billows.
+ *
+ * Call step(timeDelta) to advance the simulation. After each step the positions of the points are available,
+ * three floats (x, y, z) per point in row-major order, through the read-only buffer returned by getPositions().
+ *
+ * The springs are given by a SpringStencil: every point has the same springs, to the points at fixed row and column offsets
+ * (by default the point above and the points 1, 2, 3 and 5 to the left; shear and bend springs can be added). Each step of
+ * EXPLICIT, SYMPLECTIC_EULER and VERLET has two passes over the rows: the spring pass sums the forces of each point's springs
+ * straight from the stencil, one entry at a time along the row, with no lists of springs per point; the point pass moves
+ * the points. Each pass writes only the points of its own rows, so when the grid has at least PARALLEL_THRESHOLD points both
+ * are split into stripes of rows and run on a ForkJoinPool. See setPool().
+ *
+ * The integrator is selectable (see Integrator). The original EXPLICIT scheme moves each point by timeDelta times its force,
+ * which it clamps to magnitude 1, so large steps or stiff fabric make it jumpy. SYMPLECTIC_EULER and VERLET keep velocities,
+ * use linear (Hooke) springs without a clamp, and are damped, so they stay stable with larger steps. advance(frameDelta) runs
+ * them with a fixed time step: frame time accumulates and is consumed in steps of getFixedTimeStep(), each split into
+ * getSubsteps() substeps.
+ *
+ * XPBD (extended position-based dynamics) treats the same springs as distance constraints with compliance
+ * 1 / fabricForceFactor: each step predicts positions from gravity and wind, then runs getIterations() Gauss-Seidel passes
+ * over the constraints, projecting each pair of points toward its resting length, and derives velocities from the
+ * corrections. It stays stable with stiff fabric and large steps; more iterations make the fabric stiffer and slower to step.
+ *
+ * IMPLICIT takes backward Euler steps with the linear springs (see ImplicitSolver): it solves a sparse linear system per step
+ * with up to getConjugateGradientIterations() conjugate gradient iterations, and stays stable with one large step per frame
+ * however stiff the fabric is. With setMultigrid(true), the iterations also precondition on coarser grids, so their number
+ * per step stays about the same as the cloth grows.
+ *
+ * With setSelfCollision(true), points of the cloth are kept at least getCollisionDistance() apart after each step, so the
+ * cloth doesn't pass through itself (see SelfCollision).
+ *
+ * setObstacles() adds obstacles (spheres, capsules, boxes, triangle meshes; see Obstacle) that the points are pushed out
+ * of after each step, at least getObstacleMargin() away. A BoundingVolumeHierarchy over the obstacles' primitives keeps
+ * the cost per point roughly logarithmic in the number of primitives.
+ *
+ * With setTearing(true), a spring stretched past getTearRatio() times its resting length breaks for good. Breaking a
+ * spring between neighboring points also breaks the longer horizontal springs across the gap, and tears the triangles on
+ * either side of it out of the cloth; getTornTriangles() lists the torn triangles in the order they tore, so a renderer can
+ * remove just those.
+ *
+ * With setSleeping(true), the points are grouped into TILE x TILE tiles, and a tile whose points have all moved with
+ * kinetic energy below getSleepEnergy() for CALM_STEPS_TO_SLEEP steps in a row falls asleep: its points stop, are held
+ * like pinned points, and are skipped by the passes and by the dirty range until the tile wakes. A tile wakes when a
+ * neighboring tile moves faster than that, when a spring tears, when a parameter changes, or when wake() is called. Tiles
+ * only sleep while the wind is steady (windForceFactor or windCycleFactor 0) and the integrator isn't IMPLICIT, whose
+ * solve couples every point. A cloth that has settled in still air is then stepped at almost no cost.
+ *
+ * On JDK 17 and later, the spring and point passes can run on the Vector API, several points per instruction (see
+ * isVectorAvailable()), with the same results. Otherwise they run the scalar loops, as do the spring pass once a spring
+ * has torn and the point pass while tiles sleep.
+ *
+ * setMetrics() times the phases of each step (wind, springs, integration, collision, tearing, sleep) into PhaseTimers named
+ * "cloth.wind" and so on. For IMPLICIT, "cloth.springs" is the assembly and solve of the linear system.
+ *
+ * The springs are sorted into color classes, no two springs of a class sharing a point (see colorSprings()), so the
+ * constraints of one class can be projected in parallel without locks; the classes are solved one after another.
+ *
+ * See ClothMesh for the JavaFX renderer and for a description of the spring model.
+ */
+public class ClothSimulation {
+	public final static int PARALLEL_THRESHOLD = 64*64;
+	public enum Integrator {
+		/** x += timeDelta * force, with the spring force clamped to magnitude 1: no inertia. */
+		EXPLICIT,
+		/** v += timeDelta * force; x += timeDelta * v, with damping. */
+		SYMPLECTIC_EULER,
+		/** Position Verlet: x' = x + (x - previous x) * (1 - damping * timeDelta) + timeDelta^2 * force. */
+		VERLET,
+		/** Springs as XPBD distance constraints, solved with getIterations() iterations per step. */
+		XPBD,
+		/** Backward Euler with linear springs, solved with preconditioned conjugate gradients. */
+		IMPLICIT
+	}
+	private final static int maxStepsPerAdvance = 16;
+	private final static ClothKernel vectorKernel = loadVectorKernel(); // null if the Vector API isn't available
+	private final int rows;
+	private final int cols;
+	private final double edgeLength; // used for springs
+	// The parameters are volatile because they may be set by another thread while a thread steps the simulation.
+	private volatile double windForceFactor = 0.56;
+	private volatile double windCycleFactor = 0.04;
+	private volatile double fabricForceFactor = 2.6; // If it's too high, the simulation gets jumpy.
+	private volatile double gravity = 0.3048;
+	private volatile double damping = 0.05; // fraction of the velocity lost per unit of time, for SYMPLECTIC_EULER and VERLET
+	private volatile Integrator integrator = Integrator.EXPLICIT;
+	private volatile double fixedTimeStep = 1.0;
+	private volatile int substeps = 1;
+	private volatile int iterations = 10; // constraint iterations per step, for XPBD
+	private volatile int conjugateGradientIterations = 100; // maximum per step, for IMPLICIT
+	private volatile boolean multigrid = false; // for IMPLICIT
+	private volatile boolean selfCollision = false;
+	private volatile double collisionDistance;
+	private volatile List<Obstacle> obstacles = Collections.emptyList();
+	private volatile BoundingVolumeHierarchy obstacleHierarchy; // null if there are no obstacles
+	private volatile double obstacleMargin;
+	private volatile boolean tearing = false;
+	private volatile double tearRatio = 2.0;
+	private volatile double aerodynamicDrag = 0.0;
+	private volatile boolean sleeping = false;
+	private volatile double sleepEnergy;
+	private volatile boolean wakeRequested = false;
+	private volatile boolean vectorized = vectorKernel != null;
+	private double accumulator = 0.0;
+	private long stepCount = 0;
+	private double time = 0.0;
+	private double timeDelta = 0.0;
+	private Integrator stepIntegrator = Integrator.EXPLICIT; // integrator, read once per step
+	private volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+	// Set by setMetrics(); PhaseTimer.NONE records nothing
+	private PhaseTimer windTimer = PhaseTimer.NONE;
+	private PhaseTimer springTimer = PhaseTimer.NONE;
+	private PhaseTimer integrationTimer = PhaseTimer.NONE;
+	private PhaseTimer collisionTimer = PhaseTimer.NONE;
+	private PhaseTimer tearTimer = PhaseTimer.NONE;
+	private PhaseTimer sleepTimer = PhaseTimer.NONE;
+	private final int pointCount;
+	// Structure of arrays: the state of point row*cols+col is at index row*cols+col of each array.
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private final double[] velocityX;
+	private final double[] velocityY;
+	private final double[] velocityZ;
+	private final double[] previousX; // for VERLET
+	private final double[] previousY;
+	private final double[] previousZ;
+	private final boolean[] pinned;
+	private int pinnedEnd; // no point from here on is pinned
+	// Springs: spring s connects points springP1[s] and springP2[s] and has resting length springLength[s]. XPBD, IMPLICIT and
+	// tearing work spring by spring; the spring pass of the other integrators only uses the stencil.
+	private final SpringStencil stencil;
+	private final int[] stencilDelta; // entry k of the stencil joins point i to point i - stencilDelta[k]
+	private final double[] stencilLength;
+	private final int[] entryStart; // the layout index of the first spring of each entry (see layoutIndex())
+	private final int springCount;
+	private final int[] springP1;
+	private final int[] springP2;
+	private final double[] springLength;
+	private final double[] springLambda; // for XPBD: the accumulated Lagrange multiplier of each constraint in the current step
+	// The springs are ordered by color: no two springs in [colorStart[c], colorStart[c+1]) share a point.
+	private int[] colorStart;
+	private int[] layoutSpring; // the index of each spring in the order setUpSprings() makes them (see layoutIndex())
+	// Tearing
+	private final byte[] springState; // INTACT, BROKEN (by tearSprings(), not yet handled by recordTears()), or TORN
+	private static final byte INTACT = 0;
+	private static final byte BROKEN = 1;
+	private static final byte TORN = 2;
+	private volatile boolean newTears = false;
+	private final boolean[] triangleTorn; // triangle 2*(row*(cols-1)+col) + 0 or 1 of the cell whose top left is (row, col)
+	private final int[] tornTriangles;
+	private int tornTriangleCount = 0;
+	private final boolean[] layoutTorn; // whether the spring with each layout index is torn, for the spring pass
+	private boolean anyTorn = false;
+	// For IMPLICIT, made when first needed
+	private ImplicitSolver implicitSolver;
+	private double[] externalX;
+	private double[] externalY;
+	private double[] externalZ;
+	private SelfCollision selfCollider; // made when first needed
+	// The sum of the spring forces on each point, from the spring pass
+	private final double[] forceX;
+	private final double[] forceY;
+	private final double[] forceZ;
+	private final WindField windField;
+	// The wind force on each point, from the wind field and the aerodynamic force on its triangles, recomputed each step
+	private final double[] windX;
+	private final double[] windY;
+	private final double[] windZ;
+	private final double[][] kernelArrays; // the point arrays, as ClothKernel.integrate() takes them
+	// The aerodynamic force of each triangle on each of its corners, numbered like triangleTorn
+	private final double[] triangleForceX;
+	private final double[] triangleForceY;
+	private final double[] triangleForceZ;
+	private final float[] positions;
+	private final FloatBuffer readOnlyPositions;
+	// Points whose positions changed since the last clearDirty() are all in [dirtyFrom, dirtyTo).
+	private int dirtyFrom;
+	private int dirtyTo;
+	private final ParallelRange.Body springPass = this::sumSpringForces;
+	private final ParallelRange.Body pointPass = this::integrateRows;
+	private final ParallelRange.Body predictPass = this::predictRows;
+	private final ParallelRange.Body velocityPass = this::updateVelocityRows;
+	private final ParallelRange.Body constraintPass = this::solveConstraints;
+	private final ParallelRange.StripedBody obstaclePass = this::pushRowsOutOfObstacles;
+	private final ParallelRange.Body tearPass = this::tearSprings;
+	private final ParallelRange.Body windPass = this::sampleWind;
+	private final ParallelRange.Body aerodynamicPass = this::computeTriangleForces;
+	private final ParallelRange.Body aerodynamicGatherPass = this::gatherTriangleForces;
+	private final ParallelRange.Body sleepPass = this::measureTiles;
+	// Sleeping (see setSleeping()): point i is in tile pointTile[i]; tile t covers rows [TILE*(t/tileCols), ...) and
+	// columns [TILE*(t%tileCols), ...).
+	public final static int TILE = 8;
+	public final static int CALM_STEPS_TO_SLEEP = 30;
+	private final int tileRows;
+	private final int tileCols;
+	private final int[] pointTile;
+	private final boolean[] tileAsleep;
+	private final boolean[] tileMoving; // for updateSleep(): a point of the tile moved faster than sleepEnergy allows
+	private final int[] tileCalmSteps; // steps in a row the tile has been still; -1 while updateSleep() wakes it
+	private volatile int asleepTileCount = 0; // volatile for getAsleepTileCount() on other threads
+	// The awake tiles are all in rows [awakeRowFrom, awakeRowTo); the passes of a step only visit those rows.
+	private int awakeRowFrom;
+	private int awakeRowTo;
+	private BoundingVolumeHierarchy stepObstacleHierarchy; // obstacleHierarchy, read once per step
+	private double[][] obstaclePoints = new double[0][]; // scratch of pushRowsOutOfObstacles(), by stripe
+	private int[][] obstacleStacks = new int[0][];
+
+	private static double square(final double d) {
+		return d*d;
+	}
+
+	private static double squareRetainSign(final double d) {
+		return Math.signum(d)*d*d;
+	}
+
+	/**
+	 * Makes a flat rows x cols cloth, hanging from its top corners, with the springs of stencil.
+	 * @param edgeLength the distance between neighboring points
+	 */
+	public ClothSimulation(final int rows, final int cols, final double edgeLength, final SpringStencil stencil) {
+		if (rows < 2 || cols < 2) {
+			throw new IllegalArgumentException("The cloth needs at least 2 rows and 2 columns, not " + rows + " x " + cols);
+		}
+		this.rows = rows;
+		this.cols = cols;
+		this.edgeLength = edgeLength;
+		this.collisionDistance = 0.5*edgeLength;
+		this.obstacleMargin = 0.25*edgeLength;
+		this.sleepEnergy = 0.5*square(1e-3*edgeLength);
+		pointCount = rows*cols;
+		x = new double[pointCount];
+		y = new double[pointCount];
+		z = new double[pointCount];
+		velocityX = new double[pointCount];
+		velocityY = new double[pointCount];
+		velocityZ = new double[pointCount];
+		previousX = new double[pointCount];
+		previousY = new double[pointCount];
+		previousZ = new double[pointCount];
+		pinned = new boolean[pointCount];
+		this.stencil = stencil;
+		stencilDelta = new int[stencil.size()];
+		stencilLength = new double[stencil.size()];
+		entryStart = new int[stencil.size()];
+		int springCount = 0;
+		for (int k = 0; k < stencil.size(); k++) {
+			stencilDelta[k] = stencil.getRowOffset(k)*cols + stencil.getColOffset(k);
+			stencilLength[k] = stencil.getLength(k, edgeLength);
+			entryStart[k] = springCount;
+			springCount += stencil.getSpringCount(k, rows, cols);
+		}
+		this.springCount = springCount;
+		springP1 = new int[springCount];
+		springP2 = new int[springCount];
+		springLength = new double[springCount];
+		springLambda = new double[springCount];
+		springState = new byte[springCount];
+		triangleTorn = new boolean[2*(rows-1)*(cols-1)];
+		tornTriangles = new int[triangleTorn.length];
+		layoutTorn = new boolean[springCount];
+		forceX = new double[pointCount];
+		forceY = new double[pointCount];
+		forceZ = new double[pointCount];
+		windField = WindField.around(rows, cols, edgeLength);
+		windX = new double[pointCount];
+		windY = new double[pointCount];
+		windZ = new double[pointCount];
+		kernelArrays = new double[ClothKernel.ARRAY_COUNT][];
+		kernelArrays[ClothKernel.X] = x;
+		kernelArrays[ClothKernel.Y] = y;
+		kernelArrays[ClothKernel.Z] = z;
+		kernelArrays[ClothKernel.PREVIOUS_X] = previousX;
+		kernelArrays[ClothKernel.PREVIOUS_Y] = previousY;
+		kernelArrays[ClothKernel.PREVIOUS_Z] = previousZ;
+		kernelArrays[ClothKernel.VELOCITY_X] = velocityX;
+		kernelArrays[ClothKernel.VELOCITY_Y] = velocityY;
+		kernelArrays[ClothKernel.VELOCITY_Z] = velocityZ;
+		kernelArrays[ClothKernel.FORCE_X] = forceX;
+		kernelArrays[ClothKernel.FORCE_Y] = forceY;
+		kernelArrays[ClothKernel.FORCE_Z] = forceZ;
+		kernelArrays[ClothKernel.WIND_X] = windX;
+		kernelArrays[ClothKernel.WIND_Y] = windY;
+		kernelArrays[ClothKernel.WIND_Z] = windZ;
+		triangleForceX = new double[triangleTorn.length];
+		triangleForceY = new double[triangleTorn.length];
+		triangleForceZ = new double[triangleTorn.length];
+		positions = new float[3*pointCount];
+		readOnlyPositions = FloatBuffer.wrap(positions).asReadOnlyBuffer();
+		tileRows = (rows + TILE - 1) / TILE;
+		tileCols = (cols + TILE - 1) / TILE;
+		pointTile = new int[pointCount];
+		for (int i = 0; i < pointCount; i++) {
+			pointTile[i] = (i / cols / TILE)*tileCols + i % cols / TILE;
+		}
+		tileAsleep = new boolean[tileRows*tileCols];
+		tileMoving = new boolean[tileAsleep.length];
+		tileCalmSteps = new int[tileAsleep.length];
+		awakeRowTo = rows;
+		buildPoints();
+		setUpSprings();
+	}
+
+	public ClothSimulation(final int rows, final int cols, final double edgeLength) {
+		this(rows, cols, edgeLength, SpringStencil.DEFAULT);
+	}
+
+	public ClothSimulation(final int n, final double edgeLength) {
+		this(n, n, edgeLength);
+	}
+
+	private void buildPoints() {
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				final int i = row*cols+col;
+				x[i] = edgeLength * col;
+				y[i] = edgeLength * row;
+				z[i] = 0;
+				pinned[i] = row == 0 && (col == 0 || col == cols-1);
+				if (pinned[i]) {
+					pinnedEnd = i+1;
+				}
+			}
+		}
+		resetVelocities();
+		copyToPositions(0, rows);
+		markDirty(0, pointCount);
+	}
+
+	/**
+	 * Makes the springs of the stencil, entry by entry, each entry row by row (the layout order; see layoutIndex()), then
+	 * sorts them by color.
+	 */
+	private void setUpSprings() {
+		int s = 0;
+		for (int k = 0; k < stencil.size(); k++) {
+			final int rowOffset = stencil.getRowOffset(k);
+			final int colOffset = stencil.getColOffset(k);
+			for (int row = rowOffset; row < rows; row++) {
+				for (int col = Math.max(0, colOffset); col < cols + Math.min(0, colOffset); col++) {
+					s = addSpring(s, row*cols+col, (row-rowOffset)*cols+col-colOffset, stencilLength[k]);
+				}
+			}
+		}
+		colorSprings();
+	}
+
+	/**
+	 * Greedily gives each spring the lowest color that no other spring at either of its points has, then reorders the
+	 * springs by color. A point has at most 2 springs per entry of the stencil, so with the default stencil there are
+	 * at most 19 colors.
+	 */
+	private void colorSprings() {
+		final long[] pointColors = new long[pointCount]; // bit c is set if a spring of the point has color c
+		final int[] color = new int[springCount];
+		int colorCount = 0;
+		for (int s = 0; s < springCount; s++) {
+			final long used = pointColors[springP1[s]] | pointColors[springP2[s]];
+			final int c = Long.numberOfTrailingZeros(~used);
+			if (c == 64) {
+				throw new IllegalStateException("Too many springs at one point to color");
+			}
+			color[s] = c;
+			pointColors[springP1[s]] |= 1L << c;
+			pointColors[springP2[s]] |= 1L << c;
+			colorCount = Math.max(colorCount, c + 1);
+		}
+		colorStart = new int[colorCount+1];
+		for (int s = 0; s < springCount; s++) {
+			colorStart[color[s]+1]++;
+		}
+		for (int c = 0; c < colorCount; c++) {
+			colorStart[c+1] += colorStart[c];
+		}
+		layoutSpring = new int[springCount];
+		final int[] next = Arrays.copyOf(colorStart, colorCount);
+		final int[] p1 = springP1.clone();
+		final int[] p2 = springP2.clone();
+		final double[] length = springLength.clone();
+		for (int s = 0; s < springCount; s++) {
+			final int t = next[color[s]]++;
+			springP1[t] = p1[s];
+			springP2[t] = p2[s];
+			springLength[t] = length[s];
+			layoutSpring[s] = t;
+		}
+	}
+
+	/**
+	 * @return the index in the order of setUpSprings() of the spring of entry k of the stencil from (row, col)
+	 */
+	private int layoutIndex(final int k, final int row, final int col) {
+		final int colOffset = stencil.getColOffset(k);
+		return entryStart[k] + (row - stencil.getRowOffset(k))*(cols - Math.abs(colOffset)) + col - Math.max(0, colOffset);
+	}
+
+	/**
+	 * @return the index in the order of setUpSprings() of spring s
+	 */
+	private int layoutIndexOf(final int s) {
+		final int p1 = springP1[s];
+		final int p2 = springP2[s];
+		return layoutIndex(stencil.indexOf(p1 / cols - p2 / cols, p1 % cols - p2 % cols), p1 / cols, p1 % cols);
+	}
+
+	private int addSpring(final int s, final int p1, final int p2, final double length) {
+		springP1[s] = p1;
+		springP2[s] = p2;
+		springLength[s] = length;
+		return s + 1;
+	}
+
+	/**
+	 * @return the current state of the simulation: positions, velocities, tears, clock and parameters. Must be called on
+	 * the thread that steps the simulation, between steps.
+	 */
+	public ClothSnapshot snapshot() {
+		return new ClothSnapshot(rows, cols, stencil, stencilLength.clone(), windForceFactor, windCycleFactor,
+				fabricForceFactor, gravity, damping, integrator, fixedTimeStep, substeps, iterations,
+				conjugateGradientIterations, multigrid, selfCollision, collisionDistance, obstacleMargin, tearing, tearRatio,
+				aerodynamicDrag, sleeping, sleepEnergy, time, stepCount, accumulator, x.clone(), y.clone(), z.clone(),
+				velocityX.clone(), velocityY.clone(), velocityZ.clone(), previousX.clone(), previousY.clone(),
+				previousZ.clone(), springState.clone(), Arrays.copyOf(tornTriangles, tornTriangleCount),
+				implicitSolver == null ? null : implicitSolver.getWarmStart(), tileAsleep.clone(), tileCalmSteps.clone());
+	}
+
+	/**
+	 * Puts the simulation back in the state of snapshot, which must be of a cloth of the same size, with the same springs
+	 * (see ClothSnapshot.getMismatch()). Must be called on the thread that steps the simulation, between steps. The
+	 * obstacles and the pool stay as they are.
+	 */
+	public void restore(final ClothSnapshot snapshot) {
+		final String mismatch = snapshot.getMismatch(rows, cols, edgeLength, stencil);
+		if (mismatch != null) {
+			throw new IllegalArgumentException("Can't restore the snapshot: " + mismatch);
+		}
+		windForceFactor = snapshot.windForceFactor;
+		windCycleFactor = snapshot.windCycleFactor;
+		fabricForceFactor = snapshot.fabricForceFactor;
+		gravity = snapshot.gravity;
+		damping = snapshot.damping;
+		integrator = snapshot.integrator;
+		fixedTimeStep = snapshot.fixedTimeStep;
+		substeps = snapshot.substeps;
+		iterations = snapshot.iterations;
+		conjugateGradientIterations = snapshot.conjugateGradientIterations;
+		multigrid = snapshot.multigrid;
+		selfCollision = snapshot.selfCollision;
+		collisionDistance = snapshot.collisionDistance;
+		obstacleMargin = snapshot.obstacleMargin;
+		tearing = snapshot.tearing;
+		tearRatio = snapshot.tearRatio;
+		aerodynamicDrag = snapshot.aerodynamicDrag;
+		sleeping = snapshot.sleeping;
+		if (!Double.isNaN(snapshot.sleepEnergy)) {
+			sleepEnergy = snapshot.sleepEnergy;
+		}
+		time = snapshot.time;
+		stepCount = snapshot.stepCount;
+		accumulator = snapshot.accumulator;
+		System.arraycopy(snapshot.x, 0, x, 0, pointCount);
+		System.arraycopy(snapshot.y, 0, y, 0, pointCount);
+		System.arraycopy(snapshot.z, 0, z, 0, pointCount);
+		System.arraycopy(snapshot.velocityX, 0, velocityX, 0, pointCount);
+		System.arraycopy(snapshot.velocityY, 0, velocityY, 0, pointCount);
+		System.arraycopy(snapshot.velocityZ, 0, velocityZ, 0, pointCount);
+		System.arraycopy(snapshot.previousX, 0, previousX, 0, pointCount);
+		System.arraycopy(snapshot.previousY, 0, previousY, 0, pointCount);
+		System.arraycopy(snapshot.previousZ, 0, previousZ, 0, pointCount);
+		System.arraycopy(snapshot.springState, 0, springState, 0, springCount);
+		anyTorn = false;
+		for (int s = 0; s < springCount; s++) {
+			layoutTorn[layoutIndexOf(s)] = springState[s] != INTACT;
+			anyTorn |= springState[s] != INTACT;
+		}
+		newTears = false;
+		Arrays.fill(triangleTorn, false);
+		tornTriangleCount = 0;
+		for (int triangle : snapshot.tornTriangles) {
+			tearTriangle(triangle);
+		}
+		if (snapshot.implicitWarmStart != null) {
+			makeImplicitSolver();
+			implicitSolver.setWarmStart(snapshot.implicitWarmStart);
+		} else if (implicitSolver != null) {
+			implicitSolver.reset();
+		}
+		wakeRequested = false;
+		if (snapshot.tileAsleep != null) {
+			System.arraycopy(snapshot.tileAsleep, 0, tileAsleep, 0, tileAsleep.length);
+			System.arraycopy(snapshot.tileCalmSteps, 0, tileCalmSteps, 0, tileCalmSteps.length);
+			int asleepTiles = 0;
+			for (boolean asleep : tileAsleep) {
+				asleepTiles += asleep ? 1 : 0;
+			}
+			asleepTileCount = asleepTiles;
+		} else {
+			wakeAllTiles();
+		}
+		copyToPositions(0, rows);
+		markDirty(0, pointCount);
+	}
+
+	private void resetVelocities() {
+		Arrays.fill(velocityX, 0.0);
+		Arrays.fill(velocityY, 0.0);
+		Arrays.fill(velocityZ, 0.0);
+		System.arraycopy(x, 0, previousX, 0, pointCount);
+		System.arraycopy(y, 0, previousY, 0, pointCount);
+		System.arraycopy(z, 0, previousZ, 0, pointCount);
+		if (implicitSolver != null) {
+			implicitSolver.reset();
+		}
+	}
+
+	/**
+	 * Advances the simulation by frameDelta simulation time units in fixed steps of getFixedTimeStep(), each made of
+	 * getSubsteps() calls to step(). Time left over is carried to the next call. At most maxStepsPerAdvance fixed steps are
+	 * taken per call; if that's not enough, the simulation falls behind rather than spending ever longer on each call.
+	 * @return the number of fixed steps taken
+	 */
+	public int advance(final double frameDelta) {
+		final double fixedTimeStep = this.fixedTimeStep;
+		final int substeps = this.substeps;
+		accumulator += frameDelta;
+		int steps = 0;
+		while (accumulator >= fixedTimeStep && steps < maxStepsPerAdvance) {
+			for (int i = 0; i < substeps; i++) {
+				step(fixedTimeStep / substeps);
+			}
+			accumulator -= fixedTimeStep;
+			steps++;
+		}
+		if (accumulator >= fixedTimeStep) {
+			accumulator = 0.0;
+		}
+		return steps;
+	}
+
+	/**
+	 * Advances the simulation by timeDelta (in simulation time units, i.e. already scaled by any time factor).
+	 * The two top corners are pinned.
+	 */
+	public void step(final double timeDelta) {
+		final ForkJoinPool pool = pointCount >= PARALLEL_THRESHOLD ? this.pool : null;
+		stepIntegrator = integrator;
+		stepCount++;
+		time += timeDelta;
+		this.timeDelta = timeDelta;
+		final boolean canSleep = sleeping && stepIntegrator != Integrator.IMPLICIT && (windForceFactor == 0 || windCycleFactor == 0);
+		if (!findAwakeRows(canSleep)) {
+			return; // every tile is asleep
+		}
+		final int rowFrom = awakeRowFrom;
+		final int rowTo = awakeRowTo;
+		final int rowGrain = ParallelRange.grain(pool, rowTo - rowFrom, 1);
+		long mark = windTimer.start();
+		applyWind(pool);
+		mark = windTimer.stop(mark);
+		if (stepIntegrator == Integrator.XPBD) {
+			ParallelRange.run(pool, rowFrom, rowTo, rowGrain, predictPass);
+			final long predictStart = mark;
+			mark = System.nanoTime();
+			final long predictNanos = mark - predictStart;
+			Arrays.fill(springLambda, 0.0);
+			for (int iteration = 0, iterations = this.iterations; iteration < iterations; iteration++) {
+				for (int c = 0; c + 1 < colorStart.length; c++) {
+					final int from = colorStart[c];
+					final int to = colorStart[c+1];
+					ParallelRange.run(pool, from, to, ParallelRange.grain(pool, to - from, 1024), constraintPass);
+				}
+			}
+			mark = springTimer.stop(mark);
+			final boolean collided = collide(pool);
+			if (pushOutOfObstacles(pool) || collided) {
+				mark = collisionTimer.stop(mark);
+			}
+			ParallelRange.run(pool, rowFrom, rowTo, rowGrain, velocityPass);
+			final long velocityEnd = System.nanoTime();
+			integrationTimer.record(predictNanos + velocityEnd - mark);
+			mark = velocityEnd;
+		} else {
+			if (stepIntegrator == Integrator.IMPLICIT) {
+				stepImplicit(pool);
+				mark = springTimer.stop(mark);
+			} else {
+				ParallelRange.run(pool, rowFrom, rowTo, rowGrain, springPass);
+				mark = springTimer.stop(mark);
+				ParallelRange.run(pool, rowFrom, rowTo, rowGrain, pointPass);
+				mark = integrationTimer.stop(mark);
+			}
+			final boolean collided = collide(pool);
+			if (pushOutOfObstacles(pool) || collided) {
+				copyToPositions(rowFrom, rowTo);
+				mark = collisionTimer.stop(mark);
+			}
+		}
+		if (tearing) {
+			ParallelRange.run(pool, 0, springCount, ParallelRange.grain(pool, springCount, 4096), tearPass);
+			if (newTears) {
+				newTears = false;
+				recordTears();
+			}
+			mark = tearTimer.stop(mark);
+		}
+		if (canSleep) {
+			updateSleep(pool);
+			mark = sleepTimer.stop(mark);
+		}
+		markDirty(rowFrom*cols, rowTo*cols);
+	}
+
+	/**
+	 * Wakes every tile if canSleep is false or wake() was called, and sets [awakeRowFrom, awakeRowTo) to the rows of the
+	 * awake tiles.
+	 * @return false if every tile is asleep
+	 */
+	private boolean findAwakeRows(final boolean canSleep) {
+		if (wakeRequested || !canSleep) {
+			wakeRequested = false;
+			wakeAllTiles();
+		}
+		if (asleepTileCount == 0) {
+			awakeRowFrom = 0;
+			awakeRowTo = rows;
+			return true;
+		}
+		int first = -1;
+		int last = -1;
+		for (int t = 0; t < tileAsleep.length; t++) {
+			if (!tileAsleep[t]) {
+				if (first < 0) {
+					first = t / tileCols;
+				}
+				last = t / tileCols;
+			}
+		}
+		if (first < 0) {
+			return false;
+		}
+		awakeRowFrom = first*TILE;
+		awakeRowTo = Math.min(rows, (last+1)*TILE);
+		return true;
+	}
+
+	/**
+	 * After a step: marks each awake tile moving if one of its points moved with kinetic energy (per unit mass) above
+	 * sleepEnergy. Moving tiles wake their neighbors; a tile that has been still for CALM_STEPS_TO_SLEEP steps falls asleep,
+	 * losing what velocity it had left.
+	 */
+	private void updateSleep(final ForkJoinPool pool) {
+		final int tileRowFrom = awakeRowFrom / TILE;
+		final int tileRowTo = (awakeRowTo + TILE - 1) / TILE;
+		ParallelRange.run(pool, tileRowFrom, tileRowTo, ParallelRange.grain(pool, tileRowTo - tileRowFrom, 1), sleepPass);
+		for (int t = tileRowFrom*tileCols; t < tileRowTo*tileCols; t++) {
+			if (!tileMoving[t]) {
+				continue;
+			}
+			final int tileRow = t / tileCols;
+			final int tileCol = t % tileCols;
+			for (int r = Math.max(0, tileRow-1); r <= Math.min(tileRows-1, tileRow+1); r++) {
+				for (int c = Math.max(0, tileCol-1); c <= Math.min(tileCols-1, tileCol+1); c++) {
+					final int neighbor = r*tileCols + c;
+					if (tileAsleep[neighbor]) {
+						tileAsleep[neighbor] = false;
+						asleepTileCount--;
+					}
+					tileCalmSteps[neighbor] = -1;
+				}
+			}
+		}
+		// Woken neighbors can be a tile row outside the rows that were stepped.
+		for (int t = Math.max(0, tileRowFrom-1)*tileCols; t < Math.min(tileRows, tileRowTo+1)*tileCols; t++) {
+			if (tileAsleep[t]) {
+				continue;
+			}
+			if (tileCalmSteps[t] < 0) {
+				tileCalmSteps[t] = 0;
+			} else if (++tileCalmSteps[t] >= CALM_STEPS_TO_SLEEP) {
+				putToSleep(t);
+			}
+		}
+	}
+
+	/**
+	 * Sets tileMoving for the tiles of tile rows [tileRowFrom, tileRowTo).
+	 */
+	private void measureTiles(final int tileRowFrom, final int tileRowTo) {
+		final double limit = 2*sleepEnergy; // |v|^2 = 2 * kinetic energy of a unit mass
+		for (int t = tileRowFrom*tileCols; t < tileRowTo*tileCols; t++) {
+			tileMoving[t] = false;
+		}
+		for (int row = tileRowFrom*TILE, end = Math.min(rows, tileRowTo*TILE); row < end; row++) {
+			for (int col = 0, i = row*cols; col < cols; col++, i++) {
+				final int t = pointTile[i];
+				if (tileMoving[t] || tileAsleep[t] || pinned[i]) {
+					continue;
+				}
+				if (velocityX[i]*velocityX[i] + velocityY[i]*velocityY[i] + velocityZ[i]*velocityZ[i] > limit) {
+					tileMoving[t] = true;
+				}
+			}
+		}
+	}
+
+	private void putToSleep(final int tile) {
+		tileAsleep[tile] = true;
+		asleepTileCount++;
+		final int rowFrom = tile / tileCols * TILE;
+		final int colFrom = tile % tileCols * TILE;
+		for (int row = rowFrom; row < Math.min(rows, rowFrom + TILE); row++) {
+			for (int col = colFrom, i = row*cols + colFrom; col < Math.min(cols, colFrom + TILE); col++, i++) {
+				velocityX[i] = velocityY[i] = velocityZ[i] = 0;
+				previousX[i] = x[i];
+				previousY[i] = y[i];
+				previousZ[i] = z[i];
+			}
+		}
+	}
+
+	private void wakeAllTiles() {
+		if (asleepTileCount > 0) {
+			Arrays.fill(tileAsleep, false);
+			asleepTileCount = 0;
+		}
+		Arrays.fill(tileCalmSteps, 0);
+	}
+
+	private boolean isAsleep(final int point) {
+		return tileAsleep[pointTile[point]];
+	}
+
+	/**
+	 * Evaluates the wind field for this step and computes the wind force on every point into windX, windY and windZ.
+	 */
+	private void applyWind(final ForkJoinPool pool) {
+		final int rowFrom = awakeRowFrom;
+		final int rowTo = awakeRowTo;
+		windField.update(time, windForceFactor, windCycleFactor);
+		ParallelRange.run(pool, rowFrom, rowTo, ParallelRange.grain(pool, rowTo - rowFrom, 1), windPass);
+		if (aerodynamicDrag > 0) {
+			// The points of rows [rowFrom, rowTo) are corners of the cells of rows [rowFrom-1, rowTo).
+			final int cellFrom = Math.max(0, rowFrom-1);
+			final int cellTo = Math.min(rows-1, rowTo);
+			ParallelRange.run(pool, cellFrom, cellTo, ParallelRange.grain(pool, cellTo - cellFrom, 1), aerodynamicPass);
+			ParallelRange.run(pool, rowFrom, rowTo, ParallelRange.grain(pool, rowTo - rowFrom, 1), aerodynamicGatherPass);
+		}
+	}
+
+	private void sampleWind(final int rowFrom, final int rowTo) {
+		final boolean anyAsleep = asleepTileCount > 0;
+		for (int i = rowFrom*cols, end = rowTo*cols; i < end; i++) {
+			if (anyAsleep && isAsleep(i)) {
+				continue;
+			}
+			windField.sample(x[i], y[i], z[i], windX, windY, windZ, i);
+		}
+	}
+
+	/**
+	 * Computes the aerodynamic force of the triangles of the cells in rows [rowFrom, rowTo): the wind relative to the
+	 * triangle, projected on its normal, times aerodynamicDrag and its area in units of edgeLength^2, shared equally by
+	 * its corners. The wind of a triangle is the average of the sampled wind at its corners. EXPLICIT has no inertia, so
+	 * its velocities are not subtracted. Subtracting them damps the motion along the normals by about aerodynamicDrag per
+	 * unit of time, so the drag is capped at 1 / timeDelta to keep the step stable.
+	 */
+	private void computeTriangleForces(final int rowFrom, final int rowTo) {
+		final double scale = Math.min(aerodynamicDrag, 1 / timeDelta) / (6*edgeLength*edgeLength);
+		final boolean relative = stepIntegrator != Integrator.EXPLICIT;
+		for (int row = rowFrom; row < rowTo; row++) {
+			for (int col = 0; col < cols - 1; col++) {
+				final int topLeft = row*cols + col;
+				final int triangle = 2*(row*(cols-1) + col);
+				triangleForce(triangle, topLeft, topLeft + cols, topLeft + cols + 1, scale, relative);
+				triangleForce(triangle + 1, topLeft, topLeft + 1, topLeft + cols + 1, scale, relative);
+			}
+		}
+	}
+
+	private void triangleForce(final int triangle, final int a, final int b, final int c, final double scale,
+			final boolean relative) {
+		if (triangleTorn[triangle]) {
+			triangleForceX[triangle] = triangleForceY[triangle] = triangleForceZ[triangle] = 0;
+			return;
+		}
+		final double ux = x[b]-x[a], uy = y[b]-y[a], uz = z[b]-z[a];
+		final double vx = x[c]-x[a], vy = y[c]-y[a], vz = z[c]-z[a];
+		final double nx = uy*vz - uz*vy, ny = uz*vx - ux*vz, nz = ux*vy - uy*vx; // twice the area long
+		final double n = Math.sqrt(nx*nx + ny*ny + nz*nz);
+		double wx = windX[a] + windX[b] + windX[c];
+		double wy = windY[a] + windY[b] + windY[c];
+		double wz = windZ[a] + windZ[b] + windZ[c];
+		if (relative) {
+			wx -= velocityX[a] + velocityX[b] + velocityX[c];
+			wy -= velocityY[a] + velocityY[b] + velocityY[c];
+			wz -= velocityZ[a] + velocityZ[b] + velocityZ[c];
+		}
+		// (n . w/3) n / |n|^2 is the wind along the normal; times |n|/2, the area, over 3 corners
+		final double f = n > 0 ? scale * (nx*wx + ny*wy + nz*wz) / (3*n) : 0;
+		triangleForceX[triangle] = f*nx;
+		triangleForceY[triangle] = f*ny;
+		triangleForceZ[triangle] = f*nz;
+	}
+
+	/**
+	 * Adds to the wind force on each point of rows [rowFrom, rowTo) the aerodynamic forces of the up to 6 triangles it is a
+	 * corner of.
+	 */
+	private void gatherTriangleForces(final int rowFrom, final int rowTo) {
+		final boolean anyAsleep = asleepTileCount > 0;
+		for (int row = rowFrom; row < rowTo; row++) {
+			for (int col = 0, i = row*cols; col < cols; col++, i++) {
+				if (anyAsleep && isAsleep(i)) {
+					continue; // its wind wasn't sampled
+				}
+				double fx = 0;
+				double fy = 0;
+				double fz = 0;
+				if (row < rows - 1) {
+					if (col < cols - 1) { // top left of its cell: both triangles
+						final int t = 2*(row*(cols-1) + col);
+						fx += triangleForceX[t] + triangleForceX[t+1];
+						fy += triangleForceY[t] + triangleForceY[t+1];
+						fz += triangleForceZ[t] + triangleForceZ[t+1];
+					}
+					if (col > 0) { // top right: the upper triangle
+						final int t = 2*(row*(cols-1) + col-1) + 1;
+						fx += triangleForceX[t];
+						fy += triangleForceY[t];
+						fz += triangleForceZ[t];
+					}
+				}
+				if (row > 0) {
+					if (col < cols - 1) { // bottom left: the lower triangle
+						final int t = 2*((row-1)*(cols-1) + col);
+						fx += triangleForceX[t];
+						fy += triangleForceY[t];
+						fz += triangleForceZ[t];
+					}
+					if (col > 0) { // bottom right: both triangles
+						final int t = 2*((row-1)*(cols-1) + col-1);
+						fx += triangleForceX[t] + triangleForceX[t+1];
+						fy += triangleForceY[t] + triangleForceY[t+1];
+						fz += triangleForceZ[t] + triangleForceZ[t+1];
+					}
+				}
+				windX[i] += fx;
+				windY[i] += fy;
+				windZ[i] += fz;
+			}
+		}
+	}
+
+	/**
+	 * Breaks the intact springs of [from, to) that are stretched past tearRatio times their resting length.
+	 */
+	private void tearSprings(final int from, final int to) {
+		final double tearRatio = this.tearRatio;
+		final boolean anyAsleep = asleepTileCount > 0;
+		boolean tore = false;
+		for (int s = from; s < to; s++) {
+			if (springState[s] != INTACT) {
+				continue;
+			}
+			final int p1 = springP1[s];
+			final int p2 = springP2[s];
+			if (anyAsleep && isAsleep(p1) && isAsleep(p2)) {
+				continue;
+			}
+			final double dx = x[p1]-x[p2];
+			final double dy = y[p1]-y[p2];
+			final double dz = z[p1]-z[p2];
+			final double limit = tearRatio*springLength[s];
+			if (dx*dx + dy*dy + dz*dz > limit*limit) {
+				springState[s] = BROKEN;
+				tore = true;
+			}
+		}
+		if (tore) {
+			newTears = true;
+		}
+	}
+
+	/**
+	 * Handles the springs broken by tearSprings(): a broken spring between neighbors tears the triangles on both sides
+	 * of it, and also breaks the longer springs of the stencil along the same row or column that cross the gap. Wakes
+	 * every tile.
+	 */
+	private void recordTears() {
+		wakeAllTiles();
+		anyTorn = true;
+		for (int s = 0; s < springCount; s++) {
+			if (springState[s] != BROKEN) {
+				continue;
+			}
+			springState[s] = TORN;
+			layoutTorn[layoutIndexOf(s)] = true;
+			final int p1 = springP1[s];
+			final int p2 = springP2[s];
+			final int row = p1 / cols;
+			final int col = p1 % cols;
+			final int rowOffset = row - p2 / cols;
+			final int colOffset = col - p2 % cols;
+			if (rowOffset == 1 && colOffset == 0) { // vertical, from (row-1, col) to (row, col)
+				if (col < cols-1) {
+					tearTriangle(2*((row-1)*(cols-1) + col));
+				}
+				if (col > 0) {
+					tearTriangle(2*((row-1)*(cols-1) + col-1) + 1);
+				}
+				for (int k = 0; k < stencil.size(); k++) {
+					final int d = stencil.getRowOffset(k);
+					if (stencil.getColOffset(k) != 0 || d < 2) {
+						continue;
+					}
+					// The spring from (bottom-d, col) to (bottom, col) crosses the gap if bottom-d < row <= bottom.
+					for (int bottom = Math.max(row, d); bottom < Math.min(rows, row+d); bottom++) {
+						tearSpring(layoutIndex(k, bottom, col));
+					}
+				}
+			} else if (rowOffset == 0 && colOffset == 1) { // horizontal, from (row, col-1) to (row, col)
+				if (row < rows-1) {
+					tearTriangle(2*(row*(cols-1) + col-1) + 1);
+				}
+				if (row > 0) {
+					tearTriangle(2*((row-1)*(cols-1) + col-1));
+				}
+				for (int k = 0; k < stencil.size(); k++) {
+					final int d = stencil.getColOffset(k);
+					if (stencil.getRowOffset(k) != 0 || d < 2) {
+						continue;
+					}
+					// The spring from (row, right-d) to (row, right) crosses the gap if right-d < col <= right.
+					for (int right = Math.max(col, d); right < Math.min(cols, col+d); right++) {
+						tearSpring(layoutIndex(k, row, right));
+					}
+				}
+			}
+		}
+	}
+
+	private void tearSpring(final int layoutIndex) {
+		springState[layoutSpring[layoutIndex]] = TORN;
+		layoutTorn[layoutIndex] = true;
+	}
+
+	private void tearTriangle(final int triangle) {
+		if (!triangleTorn[triangle]) {
+			triangleTorn[triangle] = true;
+			tornTriangles[tornTriangleCount++] = triangle;
+		}
+	}
+
+	/**
+	 * Sums the forces of the springs of each point of rows [rowFrom, rowTo) into forceX, forceY and forceZ, straight from the
+	 * stencil. For each entry, the points of a row whose springs reach rowOffset rows up and colOffset columns left form one
+	 * run of consecutive points, and those whose springs come from as far down and right form another, so each run is a
+	 * loop over contiguous arrays with a fixed neighbor offset. A spring within a row is computed once, for both of its
+	 * points; one between rows is computed at each of its points, so the pass writes only the points of its own rows.
+	 */
+	private void sumSpringForces(final int rowFrom, final int rowTo) {
+		final double fabricForceFactor = this.fabricForceFactor;
+		final boolean linear = stepIntegrator != Integrator.EXPLICIT;
+		final boolean[] torn = anyTorn ? layoutTorn : null;
+		final ClothKernel kernel = vectorized && torn == null ? vectorKernel : null;
+		for (int row = rowFrom; row < rowTo; row++) {
+			final int rowStart = row*cols;
+			Arrays.fill(forceX, rowStart, rowStart + cols, 0.0);
+			Arrays.fill(forceY, rowStart, rowStart + cols, 0.0);
+			Arrays.fill(forceZ, rowStart, rowStart + cols, 0.0);
+			for (int k = 0; k < stencilDelta.length; k++) {
+				final int rowOffset = stencil.getRowOffset(k);
+				final int colOffset = stencil.getColOffset(k);
+				final int width = cols - Math.abs(colOffset); // the springs of the entry per row
+				final int left = Math.max(0, colOffset); // the first column whose point is P1 of a spring of the entry
+				if (width <= 0) {
+					continue;
+				}
+				if (rowOffset == 0) { // both points of each spring are in the row
+					addSpringForces(rowStart + left, rowStart + left + width, -stencilDelta[k], stencilLength[k],
+							fabricForceFactor, linear, torn, kernel, entryStart[k] + row*width, true);
+					continue;
+				}
+				if (row >= rowOffset) { // the points are P1 of springs to (row-rowOffset, col-colOffset)
+					addSpringForces(rowStart + left, rowStart + left + width, -stencilDelta[k], stencilLength[k],
+							fabricForceFactor, linear, torn, kernel, entryStart[k] + (row-rowOffset)*width, false);
+				}
+				if (row + rowOffset < rows) { // the points are P2 of springs from (row+rowOffset, col+colOffset)
+					addSpringForces(rowStart + left - colOffset, rowStart + left - colOffset + width, stencilDelta[k],
+							stencilLength[k], fabricForceFactor, linear, torn, kernel, entryStart[k] + row*width, false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds to the force on each point i of [from, to) the force of its spring to point i + neighborDelta, and if both, the
+	 * opposite force to that point. The force always
+	 * points in the direction of the difference vector between the points. We don't need sines and cosines!
+	 * For EXPLICIT its magnitude is fabricForceFactor * stretch^2 * distance (clamped later); otherwise it's a linear
+	 * spring with stiffness fabricForceFactor.
+	 * @param torn whether each spring is torn, by layout index, or null if none is
+	 * @param kernel does the first points, if not null; only when torn is null
+	 * @param tornFrom the layout index of the spring of point from; the next points' springs follow it
+	 */
+	private void addSpringForces(final int from, final int to, final int neighborDelta, final double length,
+			final double fabricForceFactor, final boolean linear, final boolean[] torn, final ClothKernel kernel,
+			final int tornFrom, final boolean both) {
+		final int start = kernel == null ? from : kernel.addSpringForces(x, y, z, forceX, forceY, forceZ, from, to,
+				neighborDelta, length, fabricForceFactor, linear, both);
+		for (int i = start, t = tornFrom + start - from; i < to; i++, t++) {
+			if (torn != null && torn[t]) {
+				continue;
+			}
+			final int j = i + neighborDelta;
+			final double dx = x[i]-x[j];
+			final double dy = y[i]-y[j];
+			final double dz = z[i]-z[j];
+			final double distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			final double f = linear
+					? (distance > 0 ? -fabricForceFactor * (distance-length) / distance : 0)
+					: -fabricForceFactor* squareRetainSign(distance-length);
+			forceX[i] += f*dx;
+			forceY[i] += f*dy;
+			forceZ[i] += f*dz;
+			if (both) {
+				forceX[j] -= f*dx;
+				forceY[j] -= f*dy;
+				forceZ[j] -= f*dz;
+			}
+		}
+	}
+
+	// https://graphics.stanford.edu/~mdfisher/cloth.html
+
+	/**
+	 * Adds gravity and wind to the spring force on each point of rows [rowFrom, rowTo), and moves the point. With the
+	 * vectorized kernel, the kernel does what it can of the points past the pinned ones, and the scalar loop the rest.
+	 */
+	private void integrateRows(final int rowFrom, final int rowTo) {
+		final int from = rowFrom*cols;
+		final int to = rowTo*cols;
+		if (vectorized && asleepTileCount == 0 && pinnedEnd < to) {
+			final int vectorFrom = Math.max(from, pinnedEnd);
+			final int vectorTo = vectorKernel.integrate(kernelArrays, vectorFrom, to, stepIntegrator, gravity, timeDelta,
+					Math.max(0.0, 1.0 - damping*timeDelta));
+			integratePoints(from, vectorFrom);
+			integratePoints(vectorTo, to);
+		} else {
+			integratePoints(from, to);
+		}
+		copyToPositions(rowFrom, rowTo);
+	}
+
+	private void integratePoints(final int from, final int to) {
+		final double timeDelta = this.timeDelta;
+		final double gravity = this.gravity;
+		final Integrator integrator = stepIntegrator;
+		final double velocityRetained = Math.max(0.0, 1.0 - damping*timeDelta);
+		final double timeDeltaSquared = timeDelta*timeDelta;
+		final boolean anyAsleep = asleepTileCount > 0;
+		for (int i = from; i < to; i++) {
+			if (pinned[i] || anyAsleep && isAsleep(i)) {
+				continue;
+			}
+			double fx = forceX[i];
+			double fy = forceY[i];
+			double fz = forceZ[i];
+			if (integrator == Integrator.EXPLICIT) {
+				final double magnitude = Math.sqrt(fx*fx + fy*fy + fz*fz);
+				if (magnitude>1) { // TODO: this is a hack to stop extreme values
+					fx /= magnitude;
+					fy /= magnitude;
+					fz /= magnitude;
+				}
+			}
+			fx += windX[i];
+			fy += gravity + windY[i];
+			fz += windZ[i];
+			switch (integrator) {
+			case EXPLICIT:
+				// The point moves with velocity force: there's no inertia.
+				velocityX[i] = fx;
+				velocityY[i] = fy;
+				velocityZ[i] = fz;
+				break;
+			case SYMPLECTIC_EULER:
+				velocityX[i] = velocityRetained*velocityX[i] + timeDelta*fx;
+				velocityY[i] = velocityRetained*velocityY[i] + timeDelta*fy;
+				velocityZ[i] = velocityRetained*velocityZ[i] + timeDelta*fz;
+				break;
+			case VERLET:
+				final double nextX = x[i] + velocityRetained*(x[i]-previousX[i]) + timeDeltaSquared*fx;
+				final double nextY = y[i] + velocityRetained*(y[i]-previousY[i]) + timeDeltaSquared*fy;
+				final double nextZ = z[i] + velocityRetained*(z[i]-previousZ[i]) + timeDeltaSquared*fz;
+				velocityX[i] = (nextX - x[i]) / timeDelta;
+				velocityY[i] = (nextY - y[i]) / timeDelta;
+				velocityZ[i] = (nextZ - z[i]) / timeDelta;
+				break;
+			}
+			previousX[i] = x[i];
+			previousY[i] = y[i];
+			previousZ[i] = z[i];
+			x[i] += timeDelta*velocityX[i];
+			y[i] += timeDelta*velocityY[i];
+			z[i] += timeDelta*velocityZ[i];
+		}
+	}
+
+	/**
+	 * XPBD: applies gravity and wind to the damped velocities of the points in rows [rowFrom, rowTo), and moves the points
+	 * to their predicted positions, remembering where they were.
+	 */
+	private void predictRows(final int rowFrom, final int rowTo) {
+		final double timeDelta = this.timeDelta;
+		final double gravity = this.gravity;
+		final double velocityRetained = Math.max(0.0, 1.0 - damping*timeDelta);
+		final boolean anyAsleep = asleepTileCount > 0;
+		for (int row = rowFrom; row < rowTo; row++) {
+			for (int col = 0, i = row*cols; col < cols; col++, i++) {
+				previousX[i] = x[i];
+				previousY[i] = y[i];
+				previousZ[i] = z[i];
+				if (pinned[i] || anyAsleep && isAsleep(i)) {
+					continue;
+				}
+				velocityX[i] = velocityRetained*velocityX[i] + timeDelta*windX[i];
+				velocityY[i] = velocityRetained*velocityY[i] + timeDelta*(gravity + windY[i]);
+				velocityZ[i] = velocityRetained*velocityZ[i] + timeDelta*windZ[i];
+				x[i] += timeDelta*velocityX[i];
+				y[i] += timeDelta*velocityY[i];
+				z[i] += timeDelta*velocityZ[i];
+			}
+		}
+	}
+
+	/**
+	 * XPBD: one Gauss-Seidel pass over constraints [from, to), which must share no points with constraints being solved
+	 * concurrently. Each spring is a distance constraint C = distance - length
+	 * with compliance 1 / fabricForceFactor; every point has unit mass, except pinned and sleeping points, which don't move.
+	 */
+	private void solveConstraints(final int from, final int to) {
+		final double compliance = 1.0 / (fabricForceFactor * timeDelta * timeDelta);
+		final boolean anyAsleep = asleepTileCount > 0;
+		for (int s = from; s < to; s++) {
+			final int p1 = springP1[s];
+			final int p2 = springP2[s];
+			if (springState[s] != INTACT) {
+				continue;
+			}
+			final double w1 = pinned[p1] || anyAsleep && isAsleep(p1) ? 0 : 1;
+			final double w2 = pinned[p2] || anyAsleep && isAsleep(p2) ? 0 : 1;
+			final double dx = x[p1]-x[p2];
+			final double dy = y[p1]-y[p2];
+			final double dz = z[p1]-z[p2];
+			final double distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			if (distance == 0 || w1 + w2 == 0) {
+				continue;
+			}
+			final double deltaLambda = (springLength[s] - distance - compliance*springLambda[s]) / (w1 + w2 + compliance);
+			springLambda[s] += deltaLambda;
+			final double scale = deltaLambda / distance;
+			x[p1] += w1*scale*dx;
+			y[p1] += w1*scale*dy;
+			z[p1] += w1*scale*dz;
+			x[p2] -= w2*scale*dx;
+			y[p2] -= w2*scale*dy;
+			z[p2] -= w2*scale*dz;
+		}
+	}
+
+	/**
+	 * XPBD: derives the velocities of the points in rows [rowFrom, rowTo) from how far they moved in this step.
+	 */
+	private void updateVelocityRows(final int rowFrom, final int rowTo) {
+		final double timeDelta = this.timeDelta;
+		for (int i = rowFrom*cols, end = rowTo*cols; i < end; i++) {
+			velocityX[i] = (x[i]-previousX[i]) / timeDelta;
+			velocityY[i] = (y[i]-previousY[i]) / timeDelta;
+			velocityZ[i] = (z[i]-previousZ[i]) / timeDelta;
+		}
+		copyToPositions(rowFrom, rowTo);
+	}
+
+	/**
+	 * Pushes apart points that came too close, if self-collision is on. The points keep their velocities, except that for
+	 * VERLET and XPBD, which derive velocities from positions, the push counts as motion. Sleeping points aren't pushed,
+	 * so they stay at rest and the rows outside [awakeRowFrom, awakeRowTo) don't change.
+	 * @return true if self-collision is on
+	 */
+	private boolean collide(final ForkJoinPool pool) {
+		if (!selfCollision) {
+			return false;
+		}
+		if (selfCollider == null) {
+			selfCollider = new SelfCollision(rows, cols, pinned, pointTile, tileAsleep);
+		}
+		selfCollider.collide(pool, x, y, z, collisionDistance, edgeLength, asleepTileCount > 0);
+		return true;
+	}
+
+	/**
+	 * Pushes the points out of the obstacles, if there are any. A point that is pushed loses the part of its velocity that
+	 * points into the obstacle.
+	 * @return true if there are obstacles
+	 */
+	private boolean pushOutOfObstacles(final ForkJoinPool pool) {
+		stepObstacleHierarchy = obstacleHierarchy;
+		if (stepObstacleHierarchy == null) {
+			return false;
+		}
+		final int grain = ParallelRange.grain(pool, awakeRowTo - awakeRowFrom, 1);
+		final int stripes = ParallelRange.stripeCount(awakeRowTo - awakeRowFrom, grain);
+		if (obstacleStacks.length < stripes) {
+			obstaclePoints = new double[stripes][6];
+			obstacleStacks = new int[stripes][BoundingVolumeHierarchy.STACK_SIZE];
+		}
+		ParallelRange.run(pool, awakeRowFrom, awakeRowTo, grain, obstaclePass);
+		return true;
+	}
+
+	private void pushRowsOutOfObstacles(final int stripe, final int rowFrom, final int rowTo) {
+		final BoundingVolumeHierarchy hierarchy = stepObstacleHierarchy;
+		final double margin = obstacleMargin;
+		final double[] p = obstaclePoints[stripe];
+		final int[] stack = obstacleStacks[stripe];
+		final boolean anyAsleep = asleepTileCount > 0;
+		for (int i = rowFrom*cols, end = rowTo*cols; i < end; i++) {
+			if (pinned[i] || anyAsleep && isAsleep(i)) {
+				continue;
+			}
+			p[0] = x[i];
+			p[1] = y[i];
+			p[2] = z[i];
+			if (!hierarchy.pushOut(p, margin, stack)) {
+				continue;
+			}
+			final double dx = p[0]-x[i];
+			final double dy = p[1]-y[i];
+			final double dz = p[2]-z[i];
+			final double d = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			if (d > 0) {
+				final double inward = (velocityX[i]*dx + velocityY[i]*dy + velocityZ[i]*dz) / d;
+				if (inward < 0) {
+					velocityX[i] -= inward*dx/d;
+					velocityY[i] -= inward*dy/d;
+					velocityZ[i] -= inward*dz/d;
+				}
+			}
+			x[i] = p[0];
+			y[i] = p[1];
+			z[i] = p[2];
+		}
+	}
+
+	private void makeImplicitSolver() {
+		if (implicitSolver == null) {
+			implicitSolver = new ImplicitSolver(rows, cols, springCount, springP1, springP2, springLength, springState, colorStart,
+					pinned);
+			externalX = new double[pointCount];
+			externalY = new double[pointCount];
+			externalZ = new double[pointCount];
+		}
+	}
+
+	private void stepImplicit(final ForkJoinPool pool) {
+		makeImplicitSolver();
+		final double gravity = this.gravity;
+		for (int i = 0; i < pointCount; i++) {
+			externalX[i] = windX[i];
+			externalY[i] = gravity + windY[i];
+			externalZ[i] = windZ[i];
+		}
+		implicitSolver.step(pool, x, y, z, velocityX, velocityY, velocityZ, externalX, externalY, externalZ,
+				timeDelta, fabricForceFactor, Math.max(0.0, 1.0 - damping*timeDelta), conjugateGradientIterations,
+				multigrid);
+		copyToPositions(0, rows);
+	}
+
+	/**
+	 * Copies the double positions of the points in rows [rowFrom, rowTo) into the float positions buffer.
+	 */
+	private void copyToPositions(final int rowFrom, final int rowTo) {
+		for (int i = rowFrom*cols, j = 3*i, end = rowTo*cols; i < end; i++, j += 3) {
+			positions[j] = (float) x[i];
+			positions[j+1] = (float) y[i];
+			positions[j+2] = (float) z[i];
+		}
+	}
+
+	private void markDirty(final int from, final int to) {
+		if (from >= to) {
+			return;
+		}
+		if (dirtyFrom >= dirtyTo) {
+			dirtyFrom = from;
+			dirtyTo = to;
+		} else {
+			dirtyFrom = Math.min(dirtyFrom, from);
+			dirtyTo = Math.max(dirtyTo, to);
+		}
+	}
+
+	/**
+	 * Copies the float positions of points [from, to) into dest, at the same offsets as in getPositions().
+	 */
+	public void copyPositionsTo(final float[] dest, final int from, final int to) {
+		System.arraycopy(positions, 3*from, dest, 3*from, 3*(to-from));
+	}
+
+	/**
+	 * @return the first point whose position changed since the last call to clearDirty().
+	 */
+	public int getDirtyFrom() {
+		return dirtyFrom;
+	}
+
+	/**
+	 * @return one past the last point whose position changed since the last call to clearDirty(),
+	 * or a value &lt;= getDirtyFrom() if nothing changed.
+	 */
+	public int getDirtyTo() {
+		return dirtyTo;
+	}
+
+	public void clearDirty() {
+		dirtyFrom = 0;
+		dirtyTo = 0;
+	}
+
+	/**
+	 * @return a read-only view of the positions of the points: x, y, z floats for each point, row by row.
+	 * The buffer is shared and is overwritten by the next call to step().
+	 */
+	public FloatBuffer getPositions() {
+		return readOnlyPositions;
+	}
+
+	/**
+	 * Sets the pool that large grids are stepped on, or null to always step in the calling thread.
+	 */
+	public void setPool(final ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Times the phases of each step into timers of metrics, or stops timing them if metrics is null. The collision, tearing
+	 * and sleep timers only count the steps that ran their phase. Must be called on the thread that steps the simulation,
+	 * or before it steps.
+	 */
+	public void setMetrics(final Metrics metrics) {
+		windTimer = metrics == null ? PhaseTimer.NONE : metrics.timer("cloth.wind");
+		springTimer = metrics == null ? PhaseTimer.NONE : metrics.timer("cloth.springs");
+		integrationTimer = metrics == null ? PhaseTimer.NONE : metrics.timer("cloth.integration");
+		collisionTimer = metrics == null ? PhaseTimer.NONE : metrics.timer("cloth.collision");
+		tearTimer = metrics == null ? PhaseTimer.NONE : metrics.timer("cloth.tearing");
+		sleepTimer = metrics == null ? PhaseTimer.NONE : metrics.timer("cloth.sleep");
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public double getEdgeLength() {
+		return edgeLength;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the number of calls to step() so far
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+
+	/**
+	 * Switches integrator. Call it from the thread that steps the simulation: the points keep their positions but lose their
+	 * velocities, since the EXPLICIT scheme's velocities are really forces.
+	 */
+	public void setIntegrator(final Integrator integrator) {
+		if (integrator != this.integrator) {
+			this.integrator = integrator;
+			resetVelocities();
+			wake();
+		}
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Sets the number of constraint iterations per XPBD step: more iterations make the fabric stiffer, and each step slower.
+	 */
+	public void setIterations(int iterations) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("iterations must be at least 1: " + iterations);
+		}
+		this.iterations = iterations;
+		wake();
+	}
+
+	public int getConjugateGradientIterations() {
+		return conjugateGradientIterations;
+	}
+
+	/**
+	 * Sets the maximum number of conjugate gradient iterations per IMPLICIT step; the solve stops earlier once it converges.
+	 */
+	public void setConjugateGradientIterations(int conjugateGradientIterations) {
+		if (conjugateGradientIterations < 1) {
+			throw new IllegalArgumentException("conjugateGradientIterations must be at least 1: " + conjugateGradientIterations);
+		}
+		this.conjugateGradientIterations = conjugateGradientIterations;
+	}
+
+	/**
+	 * @return whether the vectorized kernel can be used: it was built (mvn -Pvector compile, on JDK 17 or later) and the
+	 * JVM runs with --add-modules jdk.incubator.vector, and -Dcloth.vector=false wasn't given
+	 */
+	public static boolean isVectorAvailable() {
+		return vectorKernel != null;
+	}
+
+	private static ClothKernel loadVectorKernel() {
+		if (!Boolean.parseBoolean(System.getProperty("cloth.vector", "true"))) {
+			return null;
+		}
+		try {
+			return (ClothKernel) Class.forName("cloth.VectorClothKernel").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError exc) {
+			return null; // not built, or jdk.incubator.vector isn't there
+		}
+	}
+
+	public boolean isVectorized() {
+		return vectorized;
+	}
+
+	/**
+	 * Sets whether the spring and point passes of EXPLICIT, SYMPLECTIC_EULER and VERLET use the vectorized kernel, if it's
+	 * available (see isVectorAvailable()). The results are the same either way. On by default when available.
+	 */
+	public void setVectorized(final boolean vectorized) {
+		this.vectorized = vectorized && vectorKernel != null;
+	}
+
+	public boolean isMultigrid() {
+		return multigrid;
+	}
+
+	/**
+	 * Sets whether IMPLICIT steps precondition their conjugate gradients with a multigrid V-cycle (see Multigrid) instead of
+	 * block-Jacobi. It takes 3 to 4 times fewer iterations, and their number grows more slowly with the size of the cloth,
+	 * but each costs several matrix products instead of one.
+	 */
+	public void setMultigrid(boolean multigrid) {
+		this.multigrid = multigrid;
+	}
+
+	public boolean isSelfCollision() {
+		return selfCollision;
+	}
+
+	public void setSelfCollision(boolean selfCollision) {
+		this.selfCollision = selfCollision;
+		wake();
+	}
+
+	public double getCollisionDistance() {
+		return collisionDistance;
+	}
+
+	/**
+	 * Sets the minimum distance between points of the cloth when self-collision is on; by default half the edge length.
+	 */
+	public void setCollisionDistance(double collisionDistance) {
+		if (!(collisionDistance > 0)) {
+			throw new IllegalArgumentException("collisionDistance must be positive: " + collisionDistance);
+		}
+		this.collisionDistance = collisionDistance;
+		wake();
+	}
+
+	public List<Obstacle> getObstacles() {
+		return obstacles;
+	}
+
+	/**
+	 * Replaces the obstacles, building a BoundingVolumeHierarchy over them. May be called from any thread.
+	 */
+	public void setObstacles(final List<Obstacle> obstacles) {
+		final List<Obstacle> copy = Collections.unmodifiableList(new ArrayList<>(obstacles));
+		obstacleHierarchy = copy.isEmpty() ? null : new BoundingVolumeHierarchy(copy);
+		this.obstacles = copy;
+		wake();
+	}
+
+	public double getObstacleMargin() {
+		return obstacleMargin;
+	}
+
+	/**
+	 * Sets how far the points are kept from the surfaces of obstacles; by default a quarter of the edge length.
+	 */
+	public void setObstacleMargin(double obstacleMargin) {
+		if (!(obstacleMargin >= 0)) {
+			throw new IllegalArgumentException("obstacleMargin must not be negative: " + obstacleMargin);
+		}
+		this.obstacleMargin = obstacleMargin;
+		wake();
+	}
+
+	public boolean isTearing() {
+		return tearing;
+	}
+
+	/**
+	 * Turns tearing on or off. Springs that already broke stay broken until restore() brings back a ClothSnapshot taken before
+	 * they broke.
+	 */
+	public void setTearing(boolean tearing) {
+		this.tearing = tearing;
+		wake();
+	}
+
+	public double getTearRatio() {
+		return tearRatio;
+	}
+
+	/**
+	 * Sets how far, as a multiple of its resting length, a spring can stretch before it breaks when tearing is on.
+	 */
+	public void setTearRatio(double tearRatio) {
+		if (!(tearRatio > 1)) {
+			throw new IllegalArgumentException("tearRatio must be more than 1: " + tearRatio);
+		}
+		this.tearRatio = tearRatio;
+		wake();
+	}
+
+	public double getAerodynamicDrag() {
+		return aerodynamicDrag;
+	}
+
+	/**
+	 * Sets how strongly the wind pushes on the faces of the cloth, on top of the wind force on each point: 0 (the default)
+	 * turns the aerodynamic force off, and 1 makes a cloth facing a steady wind feel about that wind again.
+	 */
+	public void setAerodynamicDrag(double aerodynamicDrag) {
+		if (!(aerodynamicDrag >= 0)) {
+			throw new IllegalArgumentException("aerodynamicDrag must not be negative: " + aerodynamicDrag);
+		}
+		this.aerodynamicDrag = aerodynamicDrag;
+		wake();
+	}
+
+	public boolean isSleeping() {
+		return sleeping;
+	}
+
+	/**
+	 * Sets whether tiles of the cloth that have come to rest fall asleep and stop being stepped (see the class comment).
+	 * A sleeping cloth isn't quite the same as one stepped to the end: each tile stops where it was when it fell asleep.
+	 */
+	public void setSleeping(boolean sleeping) {
+		this.sleeping = sleeping;
+		wake();
+	}
+
+	public double getSleepEnergy() {
+		return sleepEnergy;
+	}
+
+	/**
+	 * Sets the kinetic energy per point (of unit mass) below which a point counts as still, for sleeping; by default that of
+	 * a point moving a thousandth of the edge length per unit of time.
+	 */
+	public void setSleepEnergy(double sleepEnergy) {
+		if (!(sleepEnergy >= 0)) {
+			throw new IllegalArgumentException("sleepEnergy must not be negative: " + sleepEnergy);
+		}
+		this.sleepEnergy = sleepEnergy;
+		wake();
+	}
+
+	/**
+	 * Wakes every sleeping tile at the start of the next step, e.g. after the cloth was disturbed in a way the simulation
+	 * can't see. The setters of the parameters that change the forces call it. May be called from any thread.
+	 */
+	public void wake() {
+		wakeRequested = true;
+	}
+
+	/**
+	 * @return the number of TILE x TILE tiles of the cloth (fewer points at the right and bottom edges)
+	 */
+	public int getTileCount() {
+		return tileAsleep.length;
+	}
+
+	/**
+	 * @return the number of sleeping tiles after the last step; may be called from any thread
+	 */
+	public int getAsleepTileCount() {
+		return asleepTileCount;
+	}
+
+	/**
+	 * @return the torn triangles, in the order they tore; only the first getTornTriangleCount() are valid. Triangle
+	 * 2*(row*(cols-1)+col) has corners (row, col), (row+1, col) and (row+1, col+1); the next one has corners (row, col),
+	 * (row, col+1) and (row+1, col+1). Entries are only ever appended, by the thread that steps the simulation.
+	 */
+	public int[] getTornTriangles() {
+		return tornTriangles;
+	}
+
+	public int getTornTriangleCount() {
+		return tornTriangleCount;
+	}
+
+	public double getDamping() {
+		return damping;
+	}
+
+	public void setDamping(double damping) {
+		this.damping = damping;
+		wake();
+	}
+
+	public double getFixedTimeStep() {
+		return fixedTimeStep;
+	}
+
+	/**
+	 * Sets the simulation time advanced by each fixed step of advance(), which is split into getSubsteps() calls to step().
+	 */
+	public void setFixedTimeStep(double fixedTimeStep) {
+		if (!(fixedTimeStep > 0)) {
+			throw new IllegalArgumentException("fixedTimeStep must be positive: " + fixedTimeStep);
+		}
+		this.fixedTimeStep = fixedTimeStep;
+		wake();
+	}
+
+	public int getSubsteps() {
+		return substeps;
+	}
+
+	public void setSubsteps(int substeps) {
+		if (substeps < 1) {
+			throw new IllegalArgumentException("substeps must be at least 1: " + substeps);
+		}
+		this.substeps = substeps;
+		wake();
+	}
+
+	public double getX(final int row, final int col) {
+		return x[row*cols+col];
+	}
+
+	public double getY(final int row, final int col) {
+		return y[row*cols+col];
+	}
+
+	public double getZ(final int row, final int col) {
+		return z[row*cols+col];
+	}
+
+	public SpringStencil getStencil() {
+		return stencil;
+	}
+
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	public int getSpringCount() {
+		return springCount;
+	}
+
+	/**
+	 * @return the number of color classes of springs; springs of the same class share no points.
+	 */
+	public int getColorCount() {
+		return colorStart.length - 1;
+	}
+
+	/**
+	 * Copies the force parameters (wind, fabric, gravity, damping), the integrator with its time step and iterations, the
+	 * self-collision, obstacle, tearing, aerodynamic, sleep and vectorization settings, and the pool of other into this
+	 * simulation.
+	 */
+	public void copyParametersFrom(final ClothSimulation other) {
+		windForceFactor = other.windForceFactor;
+		windCycleFactor = other.windCycleFactor;
+		fabricForceFactor = other.fabricForceFactor;
+		gravity = other.gravity;
+		damping = other.damping;
+		integrator = other.integrator;
+		fixedTimeStep = other.fixedTimeStep;
+		substeps = other.substeps;
+		iterations = other.iterations;
+		conjugateGradientIterations = other.conjugateGradientIterations;
+		multigrid = other.multigrid;
+		selfCollision = other.selfCollision;
+		collisionDistance = other.collisionDistance;
+		obstacles = other.obstacles;
+		obstacleHierarchy = other.obstacleHierarchy;
+		obstacleMargin = other.obstacleMargin;
+		tearing = other.tearing;
+		tearRatio = other.tearRatio;
+		aerodynamicDrag = other.aerodynamicDrag;
+		sleeping = other.sleeping;
+		sleepEnergy = other.sleepEnergy;
+		vectorized = other.vectorized;
+		pool = other.pool;
+		wake();
+	}
+
+	public double getWindForceFactor() {
+		return windForceFactor;
+	}
+
+	public void setWindForceFactor(double windForceFactor) {
+		this.windForceFactor = windForceFactor;
+		wake();
+	}
+
+	public double getWindCycleFactor() {
+		return windCycleFactor;
+	}
+
+	public void setWindCycleFactor(double windCycleFactor) {
+		this.windCycleFactor = windCycleFactor;
+		wake();
+	}
+
+	public double getFabricForceFactor() {
+		return fabricForceFactor;
+	}
+
+	public void setFabricForceFactor(double fabricForceFactor) {
+		this.fabricForceFactor = fabricForceFactor;
+		wake();
+	}
+
+	public double getGravity() {
+		return gravity;
+	}
+
+	public void setGravity(double gravity) {
+		this.gravity = gravity;
+		wake();
+	}
+}
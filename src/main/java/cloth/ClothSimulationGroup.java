@@ -0,0 +1,83 @@
+package cloth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Several cloths (flags, curtains, ...) stepped together on one shared ForkJoinPool.
+ *
+ * advance() forks one task per cloth. Each cloth is also stepped on the same pool (see ClothSimulation.setPool()), so
+ * a large cloth splits its passes into tasks that idle workers steal, while small cloths are stepped whole by whichever
+ * worker takes them. Work stealing balances the load across the cloths, so the group scales with the number of cores
+ * rather than stepping the cloths one after another.
+ */
+public class ClothSimulationGroup {
+	private final List<ClothSimulation> simulations;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Makes a group of simulations and sets their pool to pool.
+	 */
+	public ClothSimulationGroup(final List<ClothSimulation> simulations, final ForkJoinPool pool) {
+		this.simulations = Collections.unmodifiableList(new ArrayList<>(simulations));
+		this.pool = pool;
+		for (ClothSimulation simulation : this.simulations) {
+			simulation.setPool(pool);
+		}
+	}
+
+	public ClothSimulationGroup(final List<ClothSimulation> simulations) {
+		this(simulations, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Advances every simulation by frameDelta (see ClothSimulation.advance()), in parallel.
+	 * @return the largest number of fixed steps any simulation took
+	 */
+	public int advance(final double frameDelta) {
+		if (simulations.size() == 1 || pool == null) {
+			int steps = 0;
+			for (ClothSimulation simulation : simulations) {
+				steps = Math.max(steps, simulation.advance(frameDelta));
+			}
+			return steps;
+		}
+		final int[] steps = new int[simulations.size()];
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				final List<RecursiveAction> tasks = new ArrayList<>(simulations.size());
+				for (int i = 0; i < simulations.size(); i++) {
+					final int index = i;
+					tasks.add(new RecursiveAction() {
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute() {
+							steps[index] = simulations.get(index).advance(frameDelta);
+						}
+					});
+				}
+				invokeAll(tasks);
+			}
+		});
+		int max = 0;
+		for (int s : steps) {
+			max = Math.max(max, s);
+		}
+		return max;
+	}
+
+	public List<ClothSimulation> getSimulations() {
+		return simulations;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+}
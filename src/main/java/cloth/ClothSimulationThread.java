@@ -0,0 +1,214 @@
+package cloth;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import metrics.Metrics;
+import metrics.PhaseTimer;
+
+/**
+ * Advances a ClothSimulation (or a ClothSimulationGroup of them) on its own thread at a fixed rate, independent of the
+ * JavaFX pulse, and publishes the positions of each cloth after each advance through its own ClothFrameBuffer. Each tick advances the simulation by timeFactor / stepsPerSecond
+ * simulation time units, which ClothSimulation.advance() turns into fixed steps. The renderer only copies the latest frame
+ * into its mesh, so a slow step never stalls the UI, and the simulation never touches JavaFX.
+ *
+ * Anything else that modifies the simulation (e.g. restoring saved positions) must be passed to invokeLater(), which
+ * runs it on the simulation thread between steps. The force parameters may be set from any thread.
+ *
+ * With setRecorder(), the positions of the first simulation are also recorded after each tick that stepped it.
+ *
+ * With setMetrics(), each tick that steps is timed as "cloth.tick", with the bytes the thread allocates, and the
+ * publishing of the frames as "cloth.publish".
+ */
+public class ClothSimulationThread {
+	private final ClothSimulationGroup group;
+	private final List<ClothFrameBuffer> frames = new ArrayList<>();
+	private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+	private final Thread thread;
+	private volatile double stepsPerSecond;
+	private volatile double timeFactor;
+	private volatile boolean paused = false;
+	private volatile boolean running = true;
+	private volatile long stepCount = 0;
+	private volatile ClothRecorder recorder;
+	private volatile PhaseTimer tickTimer = PhaseTimer.NONE;
+	private volatile PhaseTimer publishTimer = PhaseTimer.NONE;
+
+	/**
+	 * @param timeFactor simulation time units per second of wall-clock time
+	 */
+	public ClothSimulationThread(final ClothSimulation simulation, final double stepsPerSecond, final double timeFactor) {
+		this(new ClothSimulationGroup(Collections.singletonList(simulation), simulation.getPool()), stepsPerSecond, timeFactor);
+	}
+
+	/**
+	 * Steps all the simulations of group together; the frames of simulation i are published through getFrames(i).
+	 */
+	public ClothSimulationThread(final ClothSimulationGroup group, final double stepsPerSecond, final double timeFactor) {
+		this.group = group;
+		for (ClothSimulation simulation : group.getSimulations()) {
+			frames.add(new ClothFrameBuffer(simulation));
+		}
+		this.stepsPerSecond = stepsPerSecond;
+		this.timeFactor = timeFactor;
+		thread = new Thread(this::run, "ClothSimulation");
+		thread.setDaemon(true);
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops the thread and waits for it to finish its current step.
+	 */
+	public void stop() {
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs command on the simulation thread before the next step, then publishes the positions even if paused.
+	 */
+	public void invokeLater(final Runnable command) {
+		commands.add(command);
+		LockSupport.unpark(thread);
+	}
+
+	private void run() {
+		long next = System.nanoTime();
+		while (running) {
+			boolean changed = false;
+			Runnable command;
+			while ((command = commands.poll()) != null) {
+				command.run();
+				changed = true;
+			}
+			final double stepsPerSecond = this.stepsPerSecond;
+			final PhaseTimer tickTimer = this.tickTimer;
+			final long tickStart = tickTimer.start();
+			if (!paused && group.advance(timeFactor / stepsPerSecond) > 0) {
+				changed = true;
+				record();
+				tickTimer.stop(tickStart);
+			}
+			stepCount = getSimulation().getStepCount();
+			if (changed) {
+				final long publishStart = System.nanoTime();
+				for (int i = 0; i < frames.size(); i++) {
+					frames.get(i).publish(group.getSimulations().get(i));
+				}
+				publishTimer.stop(publishStart);
+			}
+			final long period = (long) (TimeUnit.SECONDS.toNanos(1) / stepsPerSecond);
+			next += period;
+			final long now = System.nanoTime();
+			if (next < now - 4 * period) {
+				next = now; // We fell behind (slow steps or a pause); don't try to catch up with a burst of steps.
+			}
+			while (running && commands.isEmpty() && (next - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, next - System.nanoTime());
+			}
+		}
+	}
+
+	private void record() {
+		final ClothRecorder recorder = this.recorder;
+		if (recorder == null) {
+			return;
+		}
+		try {
+			recorder.record(getSimulation());
+		} catch (IOException | IllegalArgumentException exc) {
+			System.err.println("Stopped recording: " + exc.getMessage());
+			this.recorder = null;
+		}
+	}
+
+	/**
+	 * @return the first (or only) simulation
+	 */
+	public ClothSimulation getSimulation() {
+		return group.getSimulations().get(0);
+	}
+
+	public ClothSimulationGroup getGroup() {
+		return group;
+	}
+
+	/**
+	 * @return the frame buffer of the first (or only) simulation
+	 */
+	public ClothFrameBuffer getFrames() {
+		return frames.get(0);
+	}
+
+	/**
+	 * @return the frame buffer of the simulation at index of the group
+	 */
+	public ClothFrameBuffer getFrames(final int index) {
+		return frames.get(index);
+	}
+
+	/**
+	 * @return the number of steps (including substeps) the first simulation has taken, as of the end of the last tick
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	public double getStepsPerSecond() {
+		return stepsPerSecond;
+	}
+
+	public void setStepsPerSecond(double stepsPerSecond) {
+		this.stepsPerSecond = stepsPerSecond;
+	}
+
+	public double getTimeFactor() {
+		return timeFactor;
+	}
+
+	public void setTimeFactor(double timeFactor) {
+		this.timeFactor = timeFactor;
+	}
+
+	public ClothRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Records the first simulation with recorder from the next tick on, or stops recording if recorder is null. The
+	 * recorder is not closed here; close it after stop().
+	 */
+	public void setRecorder(ClothRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Times the ticks of the thread into metrics, or stops timing them if metrics is null. The simulations time their own
+	 * steps; see ClothSimulation.setMetrics().
+	 */
+	public void setMetrics(final Metrics metrics) {
+		tickTimer = metrics == null ? PhaseTimer.NONE : metrics.allocationTimer("cloth.tick");
+		publishTimer = metrics == null ? PhaseTimer.NONE : metrics.timer("cloth.publish");
+	}
+
+	public boolean isPaused() {
+		return paused;
+	}
+
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+}
@@ -0,0 +1,363 @@
+package cloth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The full state of a ClothSimulation at one moment, made by ClothSimulation.snapshot() and put back by
+ * ClothSimulation.restore(): the positions, velocities and previous positions of the points in flat arrays, which springs
+ * have torn, which tiles sleep, the clock, and the parameters (except the obstacles and the pool, which stay as they are),
+ * including the sleep settings. Restoring a
+ * snapshot into a simulation of the same size makes it step exactly as the simulation it was taken from did, so runs can be
+ * warm-started from a settled cloth, and solver variants compared from identical states.
+ *
+ * A snapshot never changes once made, so any number of them can be kept, and shared between threads. write() and read()
+ * save and load one in a versioned binary format: the int MAGIC, the int VERSION, rows and cols, the SpringStencil (the
+ * number of entries, then the row offset, column offset and resting length of each), the parameters, the clock, then the
+ * arrays, all big-endian as written by DataOutputStream. The snapshot includes the starting point of the IMPLICIT
+ * solver's next solve, so even its conjugate gradient iterations repeat exactly. read() also reads version 1 snapshots,
+ * which predate multigrid, with multigrid off, and versions 1 and 2, which predate configurable springs and sleeping, as
+ * snapshots of SpringStencil.DEFAULT with sleeping off, every tile awake, and the sleep energy of the simulation they're
+ * restored into.
+ */
+public final class ClothSnapshot {
+	static final int MAGIC = 0x434c534e; // "CLSN"
+	static final int VERSION = 3;
+	final int rows;
+	final int cols;
+	final SpringStencil stencil;
+	final double[] restLengths; // of the springs of each stencil entry, or null if the file predates them
+	// Parameters
+	final double windForceFactor;
+	final double windCycleFactor;
+	final double fabricForceFactor;
+	final double gravity;
+	final double damping;
+	final ClothSimulation.Integrator integrator;
+	final double fixedTimeStep;
+	final int substeps;
+	final int iterations;
+	final int conjugateGradientIterations;
+	final boolean multigrid;
+	final boolean selfCollision;
+	final double collisionDistance;
+	final double obstacleMargin;
+	final boolean tearing;
+	final double tearRatio;
+	final double aerodynamicDrag;
+	final boolean sleeping;
+	final double sleepEnergy; // NaN if the file predates it
+	// Clock
+	final double time;
+	final long stepCount;
+	final double accumulator;
+	// State, indexed like the arrays of ClothSimulation
+	final double[] x, y, z;
+	final double[] velocityX, velocityY, velocityZ;
+	final double[] previousX, previousY, previousZ;
+	final byte[] springState;
+	final int[] tornTriangles; // in the order they tore
+	final double[] implicitWarmStart; // where the IMPLICIT solver starts its next solve, or null if it hasn't run
+	final boolean[] tileAsleep; // indexed like the tiles of ClothSimulation, or null if the file predates them
+	final int[] tileCalmSteps;
+
+	ClothSnapshot(final int rows, final int cols, final SpringStencil stencil, final double[] restLengths,
+			final double windForceFactor, final double windCycleFactor,
+			final double fabricForceFactor, final double gravity, final double damping, final ClothSimulation.Integrator integrator,
+			final double fixedTimeStep, final int substeps, final int iterations, final int conjugateGradientIterations,
+			final boolean multigrid, final boolean selfCollision, final double collisionDistance, final double obstacleMargin, final boolean tearing,
+			final double tearRatio, final double aerodynamicDrag, final boolean sleeping, final double sleepEnergy,
+			final double time, final long stepCount, final double accumulator,
+			final double[] x, final double[] y, final double[] z, final double[] velocityX, final double[] velocityY,
+			final double[] velocityZ, final double[] previousX, final double[] previousY, final double[] previousZ,
+			final byte[] springState, final int[] tornTriangles, final double[] implicitWarmStart, final boolean[] tileAsleep,
+			final int[] tileCalmSteps) {
+		this.rows = rows;
+		this.cols = cols;
+		this.stencil = stencil;
+		this.restLengths = restLengths;
+		this.windForceFactor = windForceFactor;
+		this.windCycleFactor = windCycleFactor;
+		this.fabricForceFactor = fabricForceFactor;
+		this.gravity = gravity;
+		this.damping = damping;
+		this.integrator = integrator;
+		this.fixedTimeStep = fixedTimeStep;
+		this.substeps = substeps;
+		this.iterations = iterations;
+		this.conjugateGradientIterations = conjugateGradientIterations;
+		this.multigrid = multigrid;
+		this.selfCollision = selfCollision;
+		this.collisionDistance = collisionDistance;
+		this.obstacleMargin = obstacleMargin;
+		this.tearing = tearing;
+		this.tearRatio = tearRatio;
+		this.aerodynamicDrag = aerodynamicDrag;
+		this.sleeping = sleeping;
+		this.sleepEnergy = sleepEnergy;
+		this.time = time;
+		this.stepCount = stepCount;
+		this.accumulator = accumulator;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.velocityX = velocityX;
+		this.velocityY = velocityY;
+		this.velocityZ = velocityZ;
+		this.previousX = previousX;
+		this.previousY = previousY;
+		this.previousZ = previousZ;
+		this.springState = springState;
+		this.tornTriangles = tornTriangles;
+		this.implicitWarmStart = implicitWarmStart;
+		this.tileAsleep = tileAsleep;
+		this.tileCalmSteps = tileCalmSteps;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public SpringStencil getStencil() {
+		return stencil;
+	}
+
+	/**
+	 * @return why the snapshot can't be restored into a rows x cols cloth with the springs of stencil between points
+	 * edgeLength apart, or null if it can
+	 */
+	public String getMismatch(final int rows, final int cols, final double edgeLength, final SpringStencil stencil) {
+		if (this.rows != rows || this.cols != cols) {
+			return "it's of a " + this.rows + " x " + this.cols + " cloth, not " + rows + " x " + cols;
+		}
+		if (!this.stencil.equals(stencil)) {
+			return "its springs are " + this.stencil + ", not " + stencil;
+		}
+		if (restLengths != null) {
+			for (int k = 0; k < stencil.size(); k++) {
+				if (restLengths[k] != stencil.getLength(k, edgeLength)) {
+					return "its springs of entry " + k + " rest at length " + restLengths[k] + ", not "
+							+ stencil.getLength(k, edgeLength);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the simulation time when the snapshot was taken
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	public ClothSimulation.Integrator getIntegrator() {
+		return integrator;
+	}
+
+	public boolean isMultigrid() {
+		return multigrid;
+	}
+
+	public boolean isSleeping() {
+		return sleeping;
+	}
+
+	/**
+	 * Writes the snapshot to file, replacing it if it exists.
+	 */
+	public void write(final Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(rows);
+			out.writeInt(cols);
+			out.writeInt(stencil.size());
+			for (int k = 0; k < stencil.size(); k++) {
+				out.writeInt(stencil.getRowOffset(k));
+				out.writeInt(stencil.getColOffset(k));
+				out.writeDouble(restLengths[k]);
+			}
+			out.writeDouble(windForceFactor);
+			out.writeDouble(windCycleFactor);
+			out.writeDouble(fabricForceFactor);
+			out.writeDouble(gravity);
+			out.writeDouble(damping);
+			out.writeUTF(integrator.name());
+			out.writeDouble(fixedTimeStep);
+			out.writeInt(substeps);
+			out.writeInt(iterations);
+			out.writeInt(conjugateGradientIterations);
+			out.writeBoolean(multigrid);
+			out.writeBoolean(selfCollision);
+			out.writeDouble(collisionDistance);
+			out.writeDouble(obstacleMargin);
+			out.writeBoolean(tearing);
+			out.writeDouble(tearRatio);
+			out.writeDouble(aerodynamicDrag);
+			out.writeBoolean(sleeping);
+			out.writeDouble(sleepEnergy);
+			out.writeDouble(time);
+			out.writeLong(stepCount);
+			out.writeDouble(accumulator);
+			for (double[] array : new double[][] {x, y, z, velocityX, velocityY, velocityZ, previousX, previousY, previousZ}) {
+				for (double d : array) {
+					out.writeDouble(d);
+				}
+			}
+			out.writeInt(springState.length);
+			out.write(springState);
+			out.writeInt(tornTriangles.length);
+			for (int triangle : tornTriangles) {
+				out.writeInt(triangle);
+			}
+			out.writeBoolean(implicitWarmStart != null);
+			if (implicitWarmStart != null) {
+				for (double d : implicitWarmStart) {
+					out.writeDouble(d);
+				}
+			}
+			out.writeInt(tileAsleep.length);
+			for (int t = 0; t < tileAsleep.length; t++) {
+				out.writeBoolean(tileAsleep[t]);
+				out.writeInt(tileCalmSteps[t]);
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by write().
+	 */
+	public static ClothSnapshot read(final Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a cloth snapshot");
+			}
+			final int version = in.readInt();
+			if (version < 1 || version > VERSION) {
+				throw new IOException(file + " is a version " + version + " cloth snapshot; only versions 1 to " + VERSION
+						+ " are supported");
+			}
+			final int rows = in.readInt();
+			final int cols = in.readInt();
+			if (rows < 2 || cols < 2 || (long) rows*cols > Integer.MAX_VALUE / 3) {
+				throw new IOException(file + " has a bad size: " + rows + " x " + cols);
+			}
+			SpringStencil stencil = SpringStencil.DEFAULT;
+			double[] restLengths = null;
+			if (version >= 3) {
+				final int entryCount = in.readInt();
+				if (entryCount < 1 || entryCount > 2*rows*cols) {
+					throw new IOException(file + " has a bad stencil size: " + entryCount);
+				}
+				final int[][] offsets = new int[entryCount][2];
+				restLengths = new double[entryCount];
+				for (int k = 0; k < entryCount; k++) {
+					offsets[k][0] = in.readInt();
+					offsets[k][1] = in.readInt();
+					restLengths[k] = in.readDouble();
+				}
+				try {
+					stencil = new SpringStencil(offsets);
+				} catch (IllegalArgumentException exc) {
+					throw new IOException(file + ": " + exc.getMessage(), exc);
+				}
+			}
+			final double windForceFactor = in.readDouble();
+			final double windCycleFactor = in.readDouble();
+			final double fabricForceFactor = in.readDouble();
+			final double gravity = in.readDouble();
+			final double damping = in.readDouble();
+			final ClothSimulation.Integrator integrator;
+			try {
+				integrator = ClothSimulation.Integrator.valueOf(in.readUTF());
+			} catch (IllegalArgumentException exc) {
+				throw new IOException(file + ": " + exc.getMessage(), exc);
+			}
+			final double fixedTimeStep = in.readDouble();
+			final int substeps = in.readInt();
+			final int iterations = in.readInt();
+			final int conjugateGradientIterations = in.readInt();
+			final boolean multigrid = version >= 2 && in.readBoolean();
+			final boolean selfCollision = in.readBoolean();
+			final double collisionDistance = in.readDouble();
+			final double obstacleMargin = in.readDouble();
+			final boolean tearing = in.readBoolean();
+			final double tearRatio = in.readDouble();
+			final double aerodynamicDrag = in.readDouble();
+			final boolean sleeping = version >= 3 && in.readBoolean();
+			final double sleepEnergy = version >= 3 ? in.readDouble() : Double.NaN;
+			final double time = in.readDouble();
+			final long stepCount = in.readLong();
+			final double accumulator = in.readDouble();
+			final int pointCount = rows*cols;
+			final double[][] arrays = new double[9][pointCount];
+			for (double[] array : arrays) {
+				for (int i = 0; i < pointCount; i++) {
+					array[i] = in.readDouble();
+				}
+			}
+			final int springCount = in.readInt();
+			long expectedSpringCount = 0;
+			for (int k = 0; k < stencil.size(); k++) {
+				expectedSpringCount += stencil.getSpringCount(k, rows, cols);
+			}
+			if (springCount != expectedSpringCount) {
+				throw new IOException(file + " has " + springCount + " springs; its stencil has " + expectedSpringCount);
+			}
+			final byte[] springState = new byte[springCount];
+			in.readFully(springState);
+			final int tornTriangleCount = in.readInt();
+			if (tornTriangleCount < 0 || tornTriangleCount > 2*(rows-1)*(cols-1)) {
+				throw new IOException(file + " has a bad torn triangle count: " + tornTriangleCount);
+			}
+			final int[] tornTriangles = new int[tornTriangleCount];
+			for (int i = 0; i < tornTriangleCount; i++) {
+				tornTriangles[i] = in.readInt();
+				if (tornTriangles[i] < 0 || tornTriangles[i] >= 2*(rows-1)*(cols-1)) {
+					throw new IOException(file + " has a bad torn triangle: " + tornTriangles[i]);
+				}
+			}
+			double[] implicitWarmStart = null;
+			if (in.readBoolean()) {
+				implicitWarmStart = new double[3*pointCount];
+				for (int i = 0; i < implicitWarmStart.length; i++) {
+					implicitWarmStart[i] = in.readDouble();
+				}
+			}
+			boolean[] tileAsleep = null;
+			int[] tileCalmSteps = null;
+			if (version >= 3) {
+				final int tileCount = in.readInt();
+				final int tile = ClothSimulation.TILE;
+				if (tileCount != ((rows + tile - 1) / tile)*((cols + tile - 1) / tile)) {
+					throw new IOException(file + " has a bad tile count: " + tileCount);
+				}
+				tileAsleep = new boolean[tileCount];
+				tileCalmSteps = new int[tileCount];
+				for (int t = 0; t < tileCount; t++) {
+					tileAsleep[t] = in.readBoolean();
+					tileCalmSteps[t] = in.readInt();
+				}
+			}
+			return new ClothSnapshot(rows, cols, stencil, restLengths, windForceFactor, windCycleFactor, fabricForceFactor, gravity, damping, integrator,
+					fixedTimeStep, substeps, iterations, conjugateGradientIterations, multigrid, selfCollision,
+					collisionDistance, obstacleMargin, tearing, tearRatio, aerodynamicDrag, sleeping, sleepEnergy, time,
+					stepCount, accumulator, arrays[0], arrays[1], arrays[2], arrays[3], arrays[4], arrays[5], arrays[6],
+					arrays[7], arrays[8], springState, tornTriangles, implicitWarmStart, tileAsleep, tileCalmSteps);
+		}
+	}
+}
@@ -0,0 +1,369 @@
+package cloth;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Backward Euler for the linear springs of a ClothSimulation, after Baraff and Witkin, "Large Steps in Cloth Simulation".
+ * Each step solves (I - h^2 J) dv = h (f + h J v) for the change in velocity dv, where h is the time step, f the forces and
+ * J the Jacobian of the spring forces with respect to the positions (all masses are 1), then sets v += dv and x += h v.
+ * Because the springs are evaluated at the end of the step, a single large step stays stable however stiff the fabric is.
+ *
+ * The matrix is stored in block compressed sparse row form: one 3x3 block for each point and for each pair of points
+ * joined by a spring. The sparsity pattern comes from the springs and is built once; each step only refills the blocks.
+ * The system is solved with conjugate gradients, preconditioned with the inverses of the diagonal blocks, and warm started
+ * with the previous step's dv. Pinned points are filtered out of the solve, so their velocity stays 0. For large cloths, the
+ * solve can instead be preconditioned with a Multigrid V-cycle, so the iterations per step don't grow with the cloth.
+ */
+final class ImplicitSolver {
+	private static final double TOLERANCE = 1e-10; // stop when |residual|^2 <= TOLERANCE * |b|^2
+
+	private final int rows;
+	private final int cols;
+	private final int pointCount;
+	private final int[] springP1;
+	private final int[] springP2;
+	private final double[] springLength;
+	private final byte[] springState; // springs whose state isn't 0 are broken, and ignored
+	private final int[] colorStart;
+	private final boolean[] pinned;
+	// Block CSR: the blocks of row i are blocks[9*k .. 9*k+8] for k in [rowStart[i], rowStart[i+1]), in column blockColumn[k].
+	private final int[] rowStart;
+	private final int[] blockColumn;
+	private final double[] blocks;
+	private final int[] diagonalBlock; // index k of the block (i, i)
+	private final int[] springBlock12; // index k of the block (p1, p2) of each spring
+	private final int[] springBlock21;
+	private final double[] preconditioner; // the inverse of each diagonal block, 9 doubles per point
+	// Vectors of 3*pointCount doubles: x, y, z of each point
+	private final double[] force;
+	private final double[] velocity;
+	private final double[] b;
+	private final double[] deltaV;
+	private final double[] residual;
+	private final double[] z;
+	private final double[] p;
+	private final double[] q;
+	// Per step inputs read by the parallel passes
+	private double[] x;
+	private double[] y;
+	private double[] zPositions;
+	private double stiffness;
+	private double timeDeltaSquared;
+	private double[] in;
+	private double[] out;
+	private final ParallelRange.Body assemblePass = this::assembleSprings;
+	private final ParallelRange.Body multiplyPass = this::multiplyRows;
+	private Multigrid multigrid; // made the first time a step asks for it
+	private boolean useMultigrid;
+	private ForkJoinPool pool;
+	private int lastIterations;
+
+	ImplicitSolver(final int rows, final int cols, final int springCount, final int[] springP1, final int[] springP2,
+			final double[] springLength, final byte[] springState, final int[] colorStart, final boolean[] pinned) {
+		this.rows = rows;
+		this.cols = cols;
+		this.pointCount = rows*cols;
+		this.springP1 = springP1;
+		this.springP2 = springP2;
+		this.springLength = springLength;
+		this.springState = springState;
+		this.colorStart = colorStart;
+		this.pinned = pinned;
+		rowStart = new int[pointCount+1];
+		for (int i = 0; i < pointCount; i++) {
+			rowStart[i+1] = 1; // the diagonal block
+		}
+		for (int s = 0; s < springCount; s++) {
+			rowStart[springP1[s]+1]++;
+			rowStart[springP2[s]+1]++;
+		}
+		for (int i = 0; i < pointCount; i++) {
+			rowStart[i+1] += rowStart[i];
+		}
+		final int blockCount = rowStart[pointCount];
+		blockColumn = new int[blockCount];
+		blocks = new double[9*blockCount];
+		diagonalBlock = new int[pointCount];
+		springBlock12 = new int[springCount];
+		springBlock21 = new int[springCount];
+		final int[] next = Arrays.copyOf(rowStart, pointCount);
+		for (int i = 0; i < pointCount; i++) {
+			diagonalBlock[i] = next[i];
+			blockColumn[next[i]++] = i;
+		}
+		for (int s = 0; s < springCount; s++) {
+			springBlock12[s] = next[springP1[s]];
+			blockColumn[next[springP1[s]]++] = springP2[s];
+			springBlock21[s] = next[springP2[s]];
+			blockColumn[next[springP2[s]]++] = springP1[s];
+		}
+		preconditioner = new double[9*pointCount];
+		force = new double[3*pointCount];
+		velocity = new double[3*pointCount];
+		b = new double[3*pointCount];
+		deltaV = new double[3*pointCount];
+		residual = new double[3*pointCount];
+		z = new double[3*pointCount];
+		p = new double[3*pointCount];
+		q = new double[3*pointCount];
+	}
+
+	/**
+	 * Takes one backward Euler step of the points.
+	 * @param externalX external force on each point (gravity, wind); likewise externalY and externalZ
+	 * @param velocityRetained the factor by which the new velocities are damped
+	 * @param useMultigrid whether to precondition with a Multigrid V-cycle rather than block-Jacobi
+	 */
+	void step(final ForkJoinPool pool, final double[] x, final double[] y, final double[] z,
+			final double[] velocityX, final double[] velocityY, final double[] velocityZ,
+			final double[] externalX, final double[] externalY, final double[] externalZ,
+			final double timeDelta, final double stiffness, final double velocityRetained, final int maxIterations,
+			final boolean useMultigrid) {
+		this.x = x;
+		this.y = y;
+		this.zPositions = z;
+		this.stiffness = stiffness;
+		this.timeDeltaSquared = timeDelta*timeDelta;
+		for (int i = 0, j = 0; i < pointCount; i++, j += 3) {
+			force[j] = externalX[i];
+			force[j+1] = externalY[i];
+			force[j+2] = externalZ[i];
+			velocity[j] = velocityX[i];
+			velocity[j+1] = velocityY[i];
+			velocity[j+2] = velocityZ[i];
+		}
+		Arrays.fill(blocks, 0.0);
+		for (int i = 0; i < pointCount; i++) {
+			final int k = 9*diagonalBlock[i];
+			blocks[k] = blocks[k+4] = blocks[k+8] = 1.0;
+		}
+		// Each color class of springs touches every point at most once, so a class can be assembled in parallel.
+		for (int c = 0; c + 1 < colorStart.length; c++) {
+			final int from = colorStart[c];
+			final int to = colorStart[c+1];
+			ParallelRange.run(pool, from, to, ParallelRange.grain(pool, to - from, 1024), assemblePass);
+		}
+		// b = h f + h^2 J v = h f + v - A v
+		multiply(pool, velocity, b);
+		for (int j = 0; j < b.length; j++) {
+			b[j] = timeDelta*force[j] + velocity[j] - b[j];
+		}
+		invertDiagonalBlocks();
+		this.useMultigrid = useMultigrid;
+		if (useMultigrid) {
+			if (multigrid == null) {
+				multigrid = new Multigrid(rows, cols, rowStart, blockColumn, blocks, diagonalBlock, preconditioner, pinned);
+			}
+			multigrid.update(pool);
+		}
+		solve(pool, maxIterations);
+		for (int i = 0, j = 0; i < pointCount; i++, j += 3) {
+			if (pinned[i]) {
+				continue;
+			}
+			velocityX[i] = velocityRetained*(velocity[j] + deltaV[j]);
+			velocityY[i] = velocityRetained*(velocity[j+1] + deltaV[j+1]);
+			velocityZ[i] = velocityRetained*(velocity[j+2] + deltaV[j+2]);
+			x[i] += timeDelta*velocityX[i];
+			y[i] += timeDelta*velocityY[i];
+			z[i] += timeDelta*velocityZ[i];
+		}
+	}
+
+	/**
+	 * Adds the forces of springs [from, to) to force, and their terms -h^2 df/dx to the blocks. The springs must share no points.
+	 * For a spring with unit direction n, length l and resting length L, df1/dx1 = -k ((1 - L/l) (I - n n^T) + n n^T);
+	 * 1 - L/l is clamped at 0 so that a compressed spring can't make the matrix indefinite.
+	 */
+	private void assembleSprings(final int from, final int to) {
+		final double k = stiffness;
+		final double h2 = timeDeltaSquared;
+		for (int s = from; s < to; s++) {
+			final int p1 = springP1[s];
+			final int p2 = springP2[s];
+			if (springState[s] != 0) {
+				continue; // broken: its blocks stay 0
+			}
+			final double dx = x[p1]-x[p2];
+			final double dy = y[p1]-y[p2];
+			final double dz = zPositions[p1]-zPositions[p2];
+			final double distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			if (distance == 0) {
+				continue;
+			}
+			final double nx = dx / distance;
+			final double ny = dy / distance;
+			final double nz = dz / distance;
+			final double f = -k * (distance - springLength[s]);
+			force[3*p1] += f*nx;
+			force[3*p1+1] += f*ny;
+			force[3*p1+2] += f*nz;
+			force[3*p2] -= f*nx;
+			force[3*p2+1] -= f*ny;
+			force[3*p2+2] -= f*nz;
+			final double stretch = Math.max(0.0, 1.0 - springLength[s] / distance);
+			final int d1 = 9*diagonalBlock[p1];
+			final int d2 = 9*diagonalBlock[p2];
+			final int o12 = 9*springBlock12[s];
+			final int o21 = 9*springBlock21[s];
+			for (int r = 0; r < 3; r++) {
+				final double nr = r == 0 ? nx : r == 1 ? ny : nz;
+				for (int c = 0; c < 3; c++) {
+					// -h^2 df1/dx1 = h^2 k (stretch (I - n n^T) + n n^T)
+					final double nn = nr*(c == 0 ? nx : c == 1 ? ny : nz);
+					final double a = h2*k*(stretch*((r == c ? 1 : 0) - nn) + nn);
+					blocks[d1 + 3*r + c] += a;
+					blocks[d2 + 3*r + c] += a;
+					blocks[o12 + 3*r + c] = -a;
+					blocks[o21 + 3*r + c] = -a;
+				}
+			}
+		}
+	}
+
+	private void multiply(final ForkJoinPool pool, final double[] in, final double[] out) {
+		this.in = in;
+		this.out = out;
+		ParallelRange.run(pool, 0, pointCount, ParallelRange.grain(pool, pointCount, 1024), multiplyPass);
+	}
+
+	/**
+	 * out = A in, for the rows of points [from, to).
+	 */
+	private void multiplyRows(final int from, final int to) {
+		final double[] in = this.in;
+		final double[] out = this.out;
+		for (int i = from; i < to; i++) {
+			double sx = 0;
+			double sy = 0;
+			double sz = 0;
+			for (int k = rowStart[i], end = rowStart[i+1]; k < end; k++) {
+				final int m = 9*k;
+				final int j = 3*blockColumn[k];
+				sx += blocks[m]*in[j] + blocks[m+1]*in[j+1] + blocks[m+2]*in[j+2];
+				sy += blocks[m+3]*in[j] + blocks[m+4]*in[j+1] + blocks[m+5]*in[j+2];
+				sz += blocks[m+6]*in[j] + blocks[m+7]*in[j+1] + blocks[m+8]*in[j+2];
+			}
+			out[3*i] = sx;
+			out[3*i+1] = sy;
+			out[3*i+2] = sz;
+		}
+	}
+
+	private void invertDiagonalBlocks() {
+		for (int i = 0; i < pointCount; i++) {
+			final int m = 9*diagonalBlock[i];
+			final double a = blocks[m], b = blocks[m+1], c = blocks[m+2];
+			final double d = blocks[m+3], e = blocks[m+4], f = blocks[m+5];
+			final double g = blocks[m+6], h = blocks[m+7], k = blocks[m+8];
+			final double determinant = a*(e*k - f*h) - b*(d*k - f*g) + c*(d*h - e*g);
+			final double inverse = 1.0 / determinant;
+			final int o = 9*i;
+			preconditioner[o] = (e*k - f*h) * inverse;
+			preconditioner[o+1] = (c*h - b*k) * inverse;
+			preconditioner[o+2] = (b*f - c*e) * inverse;
+			preconditioner[o+3] = (f*g - d*k) * inverse;
+			preconditioner[o+4] = (a*k - c*g) * inverse;
+			preconditioner[o+5] = (c*d - a*f) * inverse;
+			preconditioner[o+6] = (d*h - e*g) * inverse;
+			preconditioner[o+7] = (b*g - a*h) * inverse;
+			preconditioner[o+8] = (a*e - b*d) * inverse;
+		}
+	}
+
+	/**
+	 * Preconditioned conjugate gradients for A deltaV = b, starting from the previous deltaV, with the pinned points filtered out.
+	 */
+	private void solve(final ForkJoinPool pool, final int maxIterations) {
+		this.pool = pool;
+		filter(deltaV);
+		multiply(pool, deltaV, residual);
+		for (int j = 0; j < residual.length; j++) {
+			residual[j] = b[j] - residual[j];
+		}
+		filter(residual);
+		final double bNorm = dot(b, b);
+		precondition(residual, z);
+		System.arraycopy(z, 0, p, 0, p.length);
+		double rz = dot(residual, z);
+		int iteration = 0;
+		while (iteration < maxIterations && dot(residual, residual) > TOLERANCE * bNorm) {
+			multiply(pool, p, q);
+			filter(q);
+			final double pq = dot(p, q);
+			if (pq <= 0) {
+				break;
+			}
+			final double alpha = rz / pq;
+			for (int j = 0; j < p.length; j++) {
+				deltaV[j] += alpha*p[j];
+				residual[j] -= alpha*q[j];
+			}
+			precondition(residual, z);
+			final double rzNext = dot(residual, z);
+			final double beta = rzNext / rz;
+			rz = rzNext;
+			for (int j = 0; j < p.length; j++) {
+				p[j] = z[j] + beta*p[j];
+			}
+			iteration++;
+		}
+		lastIterations = iteration;
+	}
+
+	private void precondition(final double[] in, final double[] out) {
+		if (useMultigrid) {
+			multigrid.apply(pool, in, out);
+			return;
+		}
+		for (int i = 0, j = 0; i < pointCount; i++, j += 3) {
+			final int o = 9*i;
+			out[j] = preconditioner[o]*in[j] + preconditioner[o+1]*in[j+1] + preconditioner[o+2]*in[j+2];
+			out[j+1] = preconditioner[o+3]*in[j] + preconditioner[o+4]*in[j+1] + preconditioner[o+5]*in[j+2];
+			out[j+2] = preconditioner[o+6]*in[j] + preconditioner[o+7]*in[j+1] + preconditioner[o+8]*in[j+2];
+		}
+		filter(out);
+	}
+
+	private void filter(final double[] vector) {
+		for (int i = 0; i < pointCount; i++) {
+			if (pinned[i]) {
+				vector[3*i] = vector[3*i+1] = vector[3*i+2] = 0;
+			}
+		}
+	}
+
+	private static double dot(final double[] a, final double[] b) {
+		double sum = 0;
+		for (int j = 0; j < a.length; j++) {
+			sum += a[j]*b[j];
+		}
+		return sum;
+	}
+
+	/**
+	 * Forgets the previous dv, e.g. after the velocities were reset.
+	 */
+	void reset() {
+		Arrays.fill(deltaV, 0.0);
+	}
+
+	/**
+	 * @return a copy of the previous dv, which the next step starts from
+	 */
+	double[] getWarmStart() {
+		return deltaV.clone();
+	}
+
+	void setWarmStart(final double[] warmStart) {
+		System.arraycopy(warmStart, 0, deltaV, 0, deltaV.length);
+	}
+
+	/**
+	 * @return the number of conjugate gradient iterations of the last step
+	 */
+	int getLastIterations() {
+		return lastIterations;
+	}
+}
@@ -0,0 +1,457 @@
+package cloth;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An aggregation multigrid V-cycle over the block CSR matrix of an ImplicitSolver, used as its conjugate gradient
+ * preconditioner. Block-Jacobi only relaxes each point against its neighbors, so a correction needs about one iteration per
+ * point it has to travel, and the iterations per solve grow with the size of the cloth. The V-cycle also corrects on coarser
+ * grids, where the same distance is fewer points, so the iterations per solve stay roughly the same as the cloth grows,
+ * and each costs a small constant number of fine matrix products.
+ *
+ * Level l+1 has one point per 2x2 square of points of level l (fewer at an odd edge). Its matrix is the Galerkin product
+ * P^T A P, where P copies the value of each coarse point to the points of its square: each fine block is added into the
+ * coarse block of the pair of squares its row and column lie in. The sparsity of each level, and which coarse block each
+ * finer block goes to, are worked out once; update() refills the values each step. Pinned points are left out of their
+ * squares. Levels stop at COARSEST_POINTS points or fewer, whose system is solved exactly with a dense Cholesky factorization.
+ *
+ * A V-cycle smooths with a block Gauss-Seidel sweep, moves the residual down a level, recurses, adds the correction back,
+ * then smooths with a sweep in the opposite order, so the preconditioner is symmetric, as conjugate gradients needs. The
+ * sweeps go through the points color by color: if the points of a level couple to points at most R rows and C columns
+ * away, the color of (row, col) is (row % (R+1), col % (C+1)), so no two points of a color are coupled, and each color is
+ * relaxed in parallel.
+ */
+final class Multigrid {
+	static final int COARSEST_POINTS = 64;
+
+	/**
+	 * One grid of the hierarchy, with its matrix in block CSR form (as in ImplicitSolver) and its work vectors.
+	 */
+	private static final class Level {
+		final int rows;
+		final int cols;
+		final int pointCount;
+		final int[] rowStart;
+		final int[] blockColumn;
+		final double[] blocks;
+		final int[] diagonalBlock;
+		final double[] inverseDiagonal; // 9 doubles per point
+		final double[] solution;
+		final double[] rightSide;
+		final double[] residual;
+		final int rowPeriod; // points rowPeriod rows or colPeriod columns apart aren't coupled
+		final int colPeriod;
+		int[] coarseBlock; // for each block, the block of the next level it's added into
+
+		Level(final int rows, final int cols, final int[] rowStart, final int[] blockColumn, final double[] blocks,
+				final int[] diagonalBlock, final double[] inverseDiagonal) {
+			this.rows = rows;
+			this.cols = cols;
+			this.pointCount = rows*cols;
+			this.rowStart = rowStart;
+			this.blockColumn = blockColumn;
+			this.blocks = blocks;
+			this.diagonalBlock = diagonalBlock;
+			this.inverseDiagonal = inverseDiagonal;
+			solution = new double[3*pointCount];
+			rightSide = new double[3*pointCount];
+			residual = new double[3*pointCount];
+			int rowReach = 0;
+			int colReach = 0;
+			for (int i = 0; i < pointCount; i++) {
+				for (int k = rowStart[i]; k < rowStart[i+1]; k++) {
+					rowReach = Math.max(rowReach, Math.abs(blockColumn[k] / cols - i / cols));
+					colReach = Math.max(colReach, Math.abs(blockColumn[k] % cols - i % cols));
+				}
+			}
+			rowPeriod = rowReach + 1;
+			colPeriod = colReach + 1;
+		}
+
+		int colors() {
+			return rowPeriod*colPeriod;
+		}
+
+		/**
+		 * @return the point of the next level whose square holds point i
+		 */
+		int aggregate(final int i) {
+			return (i / cols / 2)*((cols + 1) / 2) + (i % cols) / 2;
+		}
+	}
+
+	private final Level[] levels;
+	private final boolean[] pinned; // of the finest level
+	private final double[] coarsest; // Cholesky factor of the coarsest matrix, dense, row-major
+	private final int coarsestSize;
+	// Inputs of the parallel passes
+	private Level level;
+	private Level coarse;
+	private int color;
+	private final ParallelRange.Body coarsenPass = this::coarsenRows;
+	private final ParallelRange.Body residualPass = this::residualRows;
+	private final ParallelRange.Body smoothPass = this::smoothRows;
+
+	/**
+	 * Builds the hierarchy over the rows x cols matrix of an ImplicitSolver, whose arrays it shares.
+	 * @param inverseDiagonal the inverses of the diagonal blocks, which the solver computes each step
+	 */
+	Multigrid(final int rows, final int cols, final int[] rowStart, final int[] blockColumn, final double[] blocks,
+			final int[] diagonalBlock, final double[] inverseDiagonal, final boolean[] pinned) {
+		this.pinned = pinned;
+		int count = 1;
+		for (int r = rows, c = cols; r*c > COARSEST_POINTS; r = (r + 1) / 2, c = (c + 1) / 2) {
+			count++;
+		}
+		levels = new Level[count];
+		levels[0] = new Level(rows, cols, rowStart, blockColumn, blocks, diagonalBlock, inverseDiagonal);
+		for (int l = 1; l < count; l++) {
+			levels[l] = coarsen(levels[l-1]);
+		}
+		coarsestSize = 3*levels[count-1].pointCount;
+		coarsest = new double[coarsestSize*coarsestSize];
+	}
+
+	/**
+	 * Builds the sparsity of the level below fine: coarse points I and J are coupled if any point of square I is coupled to
+	 * any point of square J.
+	 */
+	private static Level coarsen(final Level fine) {
+		final int rows = (fine.rows + 1) / 2;
+		final int cols = (fine.cols + 1) / 2;
+		final int pointCount = rows*cols;
+		final int[] rowStart = new int[pointCount+1];
+		final int[] marker = new int[pointCount];
+		Arrays.fill(marker, -1);
+		final int[] position = new int[pointCount];
+		fine.coarseBlock = new int[fine.blockColumn.length];
+		// Two passes over the squares: the first counts each coarse row, the second fills it.
+		int[] blockColumn = null;
+		for (int pass = 0; pass < 2; pass++) {
+			int next = 0;
+			Arrays.fill(marker, -1);
+			for (int coarsePoint = 0; coarsePoint < pointCount; coarsePoint++) {
+				rowStart[coarsePoint] = next;
+				final int top = 2*(coarsePoint / cols);
+				final int left = 2*(coarsePoint % cols);
+				for (int row = top; row < Math.min(top + 2, fine.rows); row++) {
+					for (int col = left; col < Math.min(left + 2, fine.cols); col++) {
+						final int i = row*fine.cols + col;
+						for (int k = fine.rowStart[i]; k < fine.rowStart[i+1]; k++) {
+							final int j = fine.aggregate(fine.blockColumn[k]);
+							if (marker[j] != coarsePoint) {
+								marker[j] = coarsePoint;
+								position[j] = next;
+								if (blockColumn != null) {
+									blockColumn[next] = j;
+								}
+								next++;
+							}
+							fine.coarseBlock[k] = position[j];
+						}
+					}
+				}
+			}
+			rowStart[pointCount] = next;
+			if (blockColumn == null) {
+				blockColumn = new int[next];
+			}
+		}
+		final int[] diagonalBlock = new int[pointCount];
+		for (int i = 0; i < pointCount; i++) {
+			for (int k = rowStart[i]; k < rowStart[i+1]; k++) {
+				if (blockColumn[k] == i) {
+					diagonalBlock[i] = k;
+				}
+			}
+		}
+		return new Level(rows, cols, rowStart, blockColumn, new double[9*blockColumn.length], diagonalBlock,
+				new double[9*pointCount]);
+	}
+
+	/**
+	 * Recomputes the coarse matrices from the finest one, which the solver has just assembled, and its diagonal inverses.
+	 */
+	void update(final ForkJoinPool pool) {
+		for (int l = 0; l + 1 < levels.length; l++) {
+			level = levels[l];
+			coarse = levels[l+1];
+			ParallelRange.run(pool, 0, coarse.pointCount, ParallelRange.grain(pool, coarse.pointCount, 256), coarsenPass);
+			invertDiagonalBlocks(coarse);
+		}
+		factorCoarsest();
+	}
+
+	/**
+	 * Sums the blocks of the squares of coarse points [from, to) into their coarse rows. A coarse row only gets blocks from
+	 * the fine rows of its own square, so ranges of coarse rows can be summed in parallel.
+	 */
+	private void coarsenRows(final int from, final int to) {
+		final Level fine = level;
+		final boolean[] pinned = fine == levels[0] ? this.pinned : null;
+		final double[] coarseBlocks = coarse.blocks;
+		Arrays.fill(coarseBlocks, 9*coarse.rowStart[from], 9*coarse.rowStart[to], 0.0);
+		for (int coarsePoint = from; coarsePoint < to; coarsePoint++) {
+			final int top = 2*(coarsePoint / coarse.cols);
+			final int left = 2*(coarsePoint % coarse.cols);
+			for (int row = top; row < Math.min(top + 2, fine.rows); row++) {
+				for (int col = left; col < Math.min(left + 2, fine.cols); col++) {
+					final int i = row*fine.cols + col;
+					if (pinned != null && pinned[i]) {
+						continue;
+					}
+					for (int k = fine.rowStart[i]; k < fine.rowStart[i+1]; k++) {
+						if (pinned != null && pinned[fine.blockColumn[k]]) {
+							continue;
+						}
+						final int m = 9*k;
+						final int c = 9*fine.coarseBlock[k];
+						for (int e = 0; e < 9; e++) {
+							coarseBlocks[c+e] += fine.blocks[m+e];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Inverts the diagonal blocks of level. A point whose square is all pinned has a zero row; it gets the identity, so it
+	 * stays out of the solve.
+	 */
+	private static void invertDiagonalBlocks(final Level level) {
+		final double[] blocks = level.blocks;
+		final double[] inverseDiagonal = level.inverseDiagonal;
+		for (int i = 0; i < level.pointCount; i++) {
+			final int m = 9*level.diagonalBlock[i];
+			final double a = blocks[m], b = blocks[m+1], c = blocks[m+2];
+			final double d = blocks[m+3], e = blocks[m+4], f = blocks[m+5];
+			final double g = blocks[m+6], h = blocks[m+7], k = blocks[m+8];
+			final double determinant = a*(e*k - f*h) - b*(d*k - f*g) + c*(d*h - e*g);
+			final int o = 9*i;
+			if (determinant == 0) {
+				blocks[m] = blocks[m+4] = blocks[m+8] = 1.0;
+				Arrays.fill(inverseDiagonal, o, o + 9, 0.0);
+				inverseDiagonal[o] = inverseDiagonal[o+4] = inverseDiagonal[o+8] = 1.0;
+				continue;
+			}
+			final double inverse = 1.0 / determinant;
+			inverseDiagonal[o] = (e*k - f*h) * inverse;
+			inverseDiagonal[o+1] = (c*h - b*k) * inverse;
+			inverseDiagonal[o+2] = (b*f - c*e) * inverse;
+			inverseDiagonal[o+3] = (f*g - d*k) * inverse;
+			inverseDiagonal[o+4] = (a*k - c*g) * inverse;
+			inverseDiagonal[o+5] = (c*d - a*f) * inverse;
+			inverseDiagonal[o+6] = (d*h - e*g) * inverse;
+			inverseDiagonal[o+7] = (b*g - a*h) * inverse;
+			inverseDiagonal[o+8] = (a*e - b*d) * inverse;
+		}
+	}
+
+	/**
+	 * Expands the coarsest matrix into coarsest and replaces it with its lower Cholesky factor. With the finest level the
+	 * only one, its pinned points get the identity.
+	 */
+	private void factorCoarsest() {
+		final Level last = levels[levels.length-1];
+		final int n = coarsestSize;
+		Arrays.fill(coarsest, 0.0);
+		for (int i = 0; i < last.pointCount; i++) {
+			if (levels.length == 1 && pinned[i]) {
+				for (int r = 0; r < 3; r++) {
+					coarsest[(3*i+r)*n + 3*i+r] = 1.0;
+				}
+				continue;
+			}
+			for (int k = last.rowStart[i]; k < last.rowStart[i+1]; k++) {
+				final int j = last.blockColumn[k];
+				if (levels.length == 1 && pinned[j]) {
+					continue;
+				}
+				for (int r = 0; r < 3; r++) {
+					for (int c = 0; c < 3; c++) {
+						coarsest[(3*i+r)*n + 3*j+c] = last.blocks[9*k + 3*r + c];
+					}
+				}
+			}
+		}
+		for (int j = 0; j < n; j++) {
+			double diagonal = coarsest[j*n + j];
+			for (int k = 0; k < j; k++) {
+				diagonal -= coarsest[j*n + k]*coarsest[j*n + k];
+			}
+			// The matrix is positive definite; the guard only keeps rounding from producing a NaN.
+			final double pivot = Math.sqrt(Math.max(diagonal, Double.MIN_NORMAL));
+			coarsest[j*n + j] = pivot;
+			for (int i = j + 1; i < n; i++) {
+				double sum = coarsest[i*n + j];
+				for (int k = 0; k < j; k++) {
+					sum -= coarsest[i*n + k]*coarsest[j*n + k];
+				}
+				coarsest[i*n + j] = sum / pivot;
+			}
+		}
+	}
+
+	/**
+	 * out = one V-cycle applied to in, approximately A^-1 in. Both are vectors of the finest level; pinned points of out are 0.
+	 */
+	void apply(final ForkJoinPool pool, final double[] in, final double[] out) {
+		final Level finest = levels[0];
+		System.arraycopy(in, 0, finest.rightSide, 0, in.length);
+		cycle(pool, 0);
+		System.arraycopy(finest.solution, 0, out, 0, out.length);
+		filter(out);
+	}
+
+	private void cycle(final ForkJoinPool pool, final int l) {
+		final Level fine = levels[l];
+		if (l == levels.length - 1) {
+			solveCoarsest(fine.rightSide, fine.solution);
+			return;
+		}
+		Arrays.fill(fine.solution, 0.0);
+		for (int c = 0; c < fine.colors(); c++) {
+			smooth(pool, fine, c);
+		}
+		residual(pool, fine);
+		// Restriction: the right side of a coarse point is the sum of the residuals of its square.
+		final Level coarse = levels[l+1];
+		Arrays.fill(coarse.rightSide, 0.0);
+		for (int i = 0; i < fine.pointCount; i++) {
+			final int c = 3*fine.aggregate(i);
+			coarse.rightSide[c] += fine.residual[3*i];
+			coarse.rightSide[c+1] += fine.residual[3*i+1];
+			coarse.rightSide[c+2] += fine.residual[3*i+2];
+		}
+		cycle(pool, l+1);
+		// Prolongation: each point takes the correction of its square.
+		for (int i = 0; i < fine.pointCount; i++) {
+			final int c = 3*fine.aggregate(i);
+			fine.solution[3*i] += coarse.solution[c];
+			fine.solution[3*i+1] += coarse.solution[c+1];
+			fine.solution[3*i+2] += coarse.solution[c+2];
+		}
+		if (l == 0) {
+			filter(fine.solution);
+		}
+		for (int c = fine.colors() - 1; c >= 0; c--) {
+			smooth(pool, fine, c);
+		}
+	}
+
+	/**
+	 * Relaxes the points of color of level, each against the current values of its neighbors, over ranges of their rows.
+	 */
+	private void smooth(final ForkJoinPool pool, final Level level, final int color) {
+		this.level = level;
+		this.color = color;
+		final int rowCount = (level.rows - color / level.colPeriod + level.rowPeriod - 1) / level.rowPeriod;
+		ParallelRange.run(pool, 0, rowCount, ParallelRange.grain(pool, rowCount, Math.max(1, 3072 / level.cols)), smoothPass);
+	}
+
+	private void residual(final ForkJoinPool pool, final Level level) {
+		this.level = level;
+		ParallelRange.run(pool, 0, level.pointCount, ParallelRange.grain(pool, level.pointCount, 1024), residualPass);
+	}
+
+	/**
+	 * residual = rightSide - A solution, for the rows of points [from, to) of level, with pinned points of the finest level 0.
+	 */
+	private void residualRows(final int from, final int to) {
+		final Level level = this.level;
+		final boolean[] pinned = level == levels[0] ? this.pinned : null;
+		final double[] blocks = level.blocks;
+		final double[] in = level.solution;
+		for (int i = from; i < to; i++) {
+			if (pinned != null && pinned[i]) {
+				level.residual[3*i] = level.residual[3*i+1] = level.residual[3*i+2] = 0;
+				continue;
+			}
+			double sx = level.rightSide[3*i];
+			double sy = level.rightSide[3*i+1];
+			double sz = level.rightSide[3*i+2];
+			for (int k = level.rowStart[i], end = level.rowStart[i+1]; k < end; k++) {
+				final int m = 9*k;
+				final int j = 3*level.blockColumn[k];
+				sx -= blocks[m]*in[j] + blocks[m+1]*in[j+1] + blocks[m+2]*in[j+2];
+				sy -= blocks[m+3]*in[j] + blocks[m+4]*in[j+1] + blocks[m+5]*in[j+2];
+				sz -= blocks[m+6]*in[j] + blocks[m+7]*in[j+1] + blocks[m+8]*in[j+2];
+			}
+			level.residual[3*i] = sx;
+			level.residual[3*i+1] = sy;
+			level.residual[3*i+2] = sz;
+		}
+	}
+
+	/**
+	 * Sets each point of color in the rows [from, to) of that color of level so its row of the system holds, given its neighbors:
+	 * solution_i = D_i^-1 (rightSide_i - sum over j != i of A_ij solution_j). Pinned points of the finest level stay 0.
+	 */
+	private void smoothRows(final int from, final int to) {
+		final Level level = this.level;
+		final boolean[] pinned = level == levels[0] ? this.pinned : null;
+		final double[] blocks = level.blocks;
+		final double[] d = level.inverseDiagonal;
+		final double[] x = level.solution;
+		final int firstRow = color / level.colPeriod;
+		for (int row = firstRow + level.rowPeriod*from; row < firstRow + level.rowPeriod*to; row += level.rowPeriod) {
+			for (int col = color % level.colPeriod; col < level.cols; col += level.colPeriod) {
+				final int i = row*level.cols + col;
+				if (pinned != null && pinned[i]) {
+					continue;
+				}
+				double sx = level.rightSide[3*i];
+				double sy = level.rightSide[3*i+1];
+				double sz = level.rightSide[3*i+2];
+				for (int k = level.rowStart[i], end = level.rowStart[i+1]; k < end; k++) {
+					final int j = 3*level.blockColumn[k];
+					if (j == 3*i) {
+						continue;
+					}
+					final int m = 9*k;
+					sx -= blocks[m]*x[j] + blocks[m+1]*x[j+1] + blocks[m+2]*x[j+2];
+					sy -= blocks[m+3]*x[j] + blocks[m+4]*x[j+1] + blocks[m+5]*x[j+2];
+					sz -= blocks[m+6]*x[j] + blocks[m+7]*x[j+1] + blocks[m+8]*x[j+2];
+				}
+				final int o = 9*i;
+				x[3*i] = d[o]*sx + d[o+1]*sy + d[o+2]*sz;
+				x[3*i+1] = d[o+3]*sx + d[o+4]*sy + d[o+5]*sz;
+				x[3*i+2] = d[o+6]*sx + d[o+7]*sy + d[o+8]*sz;
+			}
+		}
+	}
+
+	/**
+	 * Solves the coarsest system with the Cholesky factor: forward, then back substitution.
+	 */
+	private void solveCoarsest(final double[] in, final double[] out) {
+		final int n = coarsestSize;
+		for (int i = 0; i < n; i++) {
+			double sum = in[i];
+			for (int k = 0; k < i; k++) {
+				sum -= coarsest[i*n + k]*out[k];
+			}
+			out[i] = sum / coarsest[i*n + i];
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			double sum = out[i];
+			for (int k = i + 1; k < n; k++) {
+				sum -= coarsest[k*n + i]*out[k];
+			}
+			out[i] = sum / coarsest[i*n + i];
+		}
+		if (levels.length == 1) {
+			filter(out);
+		}
+	}
+
+	private void filter(final double[] vector) {
+		for (int i = 0; i < pinned.length; i++) {
+			if (pinned[i]) {
+				vector[3*i] = vector[3*i+1] = vector[3*i+2] = 0;
+			}
+		}
+	}
+}
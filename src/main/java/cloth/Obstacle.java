@@ -0,0 +1,310 @@
+package cloth;
+
+/**
+ * Something in the scene that the cloth can't pass through: a Sphere, a Capsule, an axis-aligned Box, or a triangle Mesh
+ * (e.g. the points and faces of a JavaFX TriangleMesh such as a Tube). See ClothSimulation.setObstacles().
+ *
+ * An obstacle is made of primitives (one for a sphere, capsule or box; one per triangle for a mesh), each with a bounding
+ * box, so that a bounding volume hierarchy over all the primitives can find the few that are near a point.
+ * Obstacles don't move; to move one, pass a new list to setObstacles().
+ */
+public abstract class Obstacle {
+	/**
+	 * @return the number of primitives
+	 */
+	abstract int getPrimitiveCount();
+
+	/**
+	 * Writes the bounding box of primitive into bounds, at offset: minX, minY, minZ, maxX, maxY, maxZ.
+	 */
+	abstract void getBounds(int primitive, double[] bounds, int offset);
+
+	/**
+	 * If the point p is closer than margin to primitive (or inside it), writes into p the nearest point that is margin away
+	 * from its surface and returns true; otherwise leaves p alone and returns false.
+	 * @param p x, y, z of the point, followed by 3 doubles that the obstacle may use as scratch space
+	 */
+	abstract boolean pushOut(int primitive, double[] p, double margin);
+
+	// Writes the point that is margin away from (cx, cy, cz) in the direction of p into p, if p is closer than radius + margin.
+	private static boolean pushOutOfBall(final double cx, final double cy, final double cz, final double radius,
+			final double[] p, final double margin) {
+		final double dx = p[0] - cx;
+		final double dy = p[1] - cy;
+		final double dz = p[2] - cz;
+		final double d2 = dx*dx + dy*dy + dz*dz;
+		final double reach = radius + margin;
+		if (d2 >= reach*reach) {
+			return false;
+		}
+		final double d = Math.sqrt(d2);
+		if (d == 0) {
+			p[1] = cy - reach; // straight up (y grows downward)
+		} else {
+			p[0] = cx + dx * reach / d;
+			p[1] = cy + dy * reach / d;
+			p[2] = cz + dz * reach / d;
+		}
+		return true;
+	}
+
+	public static class Sphere extends Obstacle {
+		private final double centerX, centerY, centerZ;
+		private final double radius;
+
+		public Sphere(final double centerX, final double centerY, final double centerZ, final double radius) {
+			this.centerX = centerX;
+			this.centerY = centerY;
+			this.centerZ = centerZ;
+			this.radius = radius;
+		}
+
+		@Override
+		int getPrimitiveCount() {
+			return 1;
+		}
+
+		@Override
+		void getBounds(final int primitive, final double[] bounds, final int offset) {
+			bounds[offset] = centerX - radius;
+			bounds[offset+1] = centerY - radius;
+			bounds[offset+2] = centerZ - radius;
+			bounds[offset+3] = centerX + radius;
+			bounds[offset+4] = centerY + radius;
+			bounds[offset+5] = centerZ + radius;
+		}
+
+		@Override
+		boolean pushOut(final int primitive, final double[] p, final double margin) {
+			return pushOutOfBall(centerX, centerY, centerZ, radius, p, margin);
+		}
+	}
+
+	/**
+	 * The points within radius of the segment from (x1, y1, z1) to (x2, y2, z2).
+	 */
+	public static class Capsule extends Obstacle {
+		private final double x1, y1, z1;
+		private final double x2, y2, z2;
+		private final double radius;
+
+		public Capsule(final double x1, final double y1, final double z1, final double x2, final double y2, final double z2,
+				final double radius) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.z1 = z1;
+			this.x2 = x2;
+			this.y2 = y2;
+			this.z2 = z2;
+			this.radius = radius;
+		}
+
+		@Override
+		int getPrimitiveCount() {
+			return 1;
+		}
+
+		@Override
+		void getBounds(final int primitive, final double[] bounds, final int offset) {
+			bounds[offset] = Math.min(x1, x2) - radius;
+			bounds[offset+1] = Math.min(y1, y2) - radius;
+			bounds[offset+2] = Math.min(z1, z2) - radius;
+			bounds[offset+3] = Math.max(x1, x2) + radius;
+			bounds[offset+4] = Math.max(y1, y2) + radius;
+			bounds[offset+5] = Math.max(z1, z2) + radius;
+		}
+
+		@Override
+		boolean pushOut(final int primitive, final double[] p, final double margin) {
+			final double ex = x2 - x1;
+			final double ey = y2 - y1;
+			final double ez = z2 - z1;
+			final double lengthSquared = ex*ex + ey*ey + ez*ez;
+			double t = lengthSquared == 0 ? 0 : ((p[0]-x1)*ex + (p[1]-y1)*ey + (p[2]-z1)*ez) / lengthSquared;
+			t = Math.max(0, Math.min(1, t));
+			return pushOutOfBall(x1 + t*ex, y1 + t*ey, z1 + t*ez, radius, p, margin);
+		}
+	}
+
+	/**
+	 * An axis-aligned box.
+	 */
+	public static class Box extends Obstacle {
+		private final double minX, minY, minZ;
+		private final double maxX, maxY, maxZ;
+
+		public Box(final double minX, final double minY, final double minZ, final double maxX, final double maxY, final double maxZ) {
+			this.minX = Math.min(minX, maxX);
+			this.minY = Math.min(minY, maxY);
+			this.minZ = Math.min(minZ, maxZ);
+			this.maxX = Math.max(minX, maxX);
+			this.maxY = Math.max(minY, maxY);
+			this.maxZ = Math.max(minZ, maxZ);
+		}
+
+		@Override
+		int getPrimitiveCount() {
+			return 1;
+		}
+
+		@Override
+		void getBounds(final int primitive, final double[] bounds, final int offset) {
+			bounds[offset] = minX;
+			bounds[offset+1] = minY;
+			bounds[offset+2] = minZ;
+			bounds[offset+3] = maxX;
+			bounds[offset+4] = maxY;
+			bounds[offset+5] = maxZ;
+		}
+
+		@Override
+		boolean pushOut(final int primitive, final double[] p, final double margin) {
+			final double x = p[0], y = p[1], z = p[2];
+			if (x <= minX - margin || x >= maxX + margin || y <= minY - margin || y >= maxY + margin
+					|| z <= minZ - margin || z >= maxZ + margin) {
+				return false;
+			}
+			// Leave through the nearest face of the box grown by margin.
+			int axis = 0;
+			double exit = minX - margin - x;
+			for (int i = 1; i < 6; i++) {
+				final double candidate = i == 1 ? maxX + margin - x : i == 2 ? minY - margin - y : i == 3 ? maxY + margin - y
+						: i == 4 ? minZ - margin - z : maxZ + margin - z;
+				if (Math.abs(candidate) < Math.abs(exit)) {
+					axis = i / 2;
+					exit = candidate;
+				}
+			}
+			p[axis] += exit;
+			return true;
+		}
+	}
+
+	/**
+	 * A triangle mesh, as thin as margin: points closer than margin to a triangle are pushed away from it, on their own side.
+	 */
+	public static class Mesh extends Obstacle {
+		private final float[] points;
+		private final int[] triangles;
+
+		/**
+		 * @param points x, y, z of each vertex, as in TriangleMesh.getPoints()
+		 * @param triangles three vertex indices per triangle
+		 */
+		public Mesh(final float[] points, final int[] triangles) {
+			this.points = points.clone();
+			this.triangles = triangles.clone();
+		}
+
+		@Override
+		int getPrimitiveCount() {
+			return triangles.length / 3;
+		}
+
+		@Override
+		void getBounds(final int primitive, final double[] bounds, final int offset) {
+			for (int axis = 0; axis < 3; axis++) {
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int corner = 0; corner < 3; corner++) {
+					final double v = points[3*triangles[3*primitive+corner] + axis];
+					min = Math.min(min, v);
+					max = Math.max(max, v);
+				}
+				bounds[offset+axis] = min;
+				bounds[offset+3+axis] = max;
+			}
+		}
+
+		@Override
+		boolean pushOut(final int primitive, final double[] p, final double margin) {
+			final int a = 3*triangles[3*primitive];
+			final int b = 3*triangles[3*primitive+1];
+			final int c = 3*triangles[3*primitive+2];
+			closestPointOnTriangle(p, points[a], points[a+1], points[a+2], points[b], points[b+1], points[b+2],
+					points[c], points[c+1], points[c+2]);
+			final double dx = p[0] - p[3];
+			final double dy = p[1] - p[4];
+			final double dz = p[2] - p[5];
+			final double d2 = dx*dx + dy*dy + dz*dz;
+			if (d2 >= margin*margin) {
+				return false;
+			}
+			final double d = Math.sqrt(d2);
+			if (d == 0) {
+				// On the triangle: leave along its normal.
+				final double ux = points[b]-points[a], uy = points[b+1]-points[a+1], uz = points[b+2]-points[a+2];
+				final double vx = points[c]-points[a], vy = points[c+1]-points[a+1], vz = points[c+2]-points[a+2];
+				final double nx = uy*vz - uz*vy, ny = uz*vx - ux*vz, nz = ux*vy - uy*vx;
+				final double n = Math.sqrt(nx*nx + ny*ny + nz*nz);
+				if (n == 0) {
+					return false;
+				}
+				p[0] += nx * margin / n;
+				p[1] += ny * margin / n;
+				p[2] += nz * margin / n;
+			} else {
+				p[0] = p[3] + dx * margin / d;
+				p[1] = p[4] + dy * margin / d;
+				p[2] = p[5] + dz * margin / d;
+			}
+			return true;
+		}
+
+		// Writes the point of triangle abc closest to p[0..2] into p[3..5]. From Ericson, Real-Time Collision Detection, 5.1.5
+		private static void closestPointOnTriangle(final double[] p, final double ax, final double ay, final double az,
+				final double bx, final double by, final double bz, final double cx, final double cy, final double cz) {
+			final double abx = bx-ax, aby = by-ay, abz = bz-az;
+			final double acx = cx-ax, acy = cy-ay, acz = cz-az;
+			final double apx = p[0]-ax, apy = p[1]-ay, apz = p[2]-az;
+			final double d1 = abx*apx + aby*apy + abz*apz;
+			final double d2 = acx*apx + acy*apy + acz*apz;
+			if (d1 <= 0 && d2 <= 0) {
+				set(p, ax, ay, az);
+				return;
+			}
+			final double bpx = p[0]-bx, bpy = p[1]-by, bpz = p[2]-bz;
+			final double d3 = abx*bpx + aby*bpy + abz*bpz;
+			final double d4 = acx*bpx + acy*bpy + acz*bpz;
+			if (d3 >= 0 && d4 <= d3) {
+				set(p, bx, by, bz);
+				return;
+			}
+			final double vc = d1*d4 - d3*d2;
+			if (vc <= 0 && d1 >= 0 && d3 <= 0) {
+				final double v = d1 / (d1 - d3);
+				set(p, ax + v*abx, ay + v*aby, az + v*abz);
+				return;
+			}
+			final double cpx = p[0]-cx, cpy = p[1]-cy, cpz = p[2]-cz;
+			final double d5 = abx*cpx + aby*cpy + abz*cpz;
+			final double d6 = acx*cpx + acy*cpy + acz*cpz;
+			if (d6 >= 0 && d5 <= d6) {
+				set(p, cx, cy, cz);
+				return;
+			}
+			final double vb = d5*d2 - d1*d6;
+			if (vb <= 0 && d2 >= 0 && d6 <= 0) {
+				final double w = d2 / (d2 - d6);
+				set(p, ax + w*acx, ay + w*acy, az + w*acz);
+				return;
+			}
+			final double va = d3*d6 - d5*d4;
+			if (va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0) {
+				final double w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+				set(p, bx + w*(cx-bx), by + w*(cy-by), bz + w*(cz-bz));
+				return;
+			}
+			final double denominator = 1 / (va + vb + vc);
+			final double v = vb * denominator;
+			final double w = vc * denominator;
+			set(p, ax + abx*v + acx*w, ay + aby*v + acy*w, az + abz*v + acz*w);
+		}
+
+		private static void set(final double[] p, final double x, final double y, final double z) {
+			p[3] = x;
+			p[4] = y;
+			p[5] = z;
+		}
+	}
+}
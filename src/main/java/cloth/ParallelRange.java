@@ -0,0 +1,114 @@
+package cloth;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a body over an index range [from, to), split in halves on a ForkJoinPool until the pieces are no larger than grain.
+ * The pieces are disjoint, so a body that only writes the entries of its own range needs no locks.
+ */
+final class ParallelRange extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	interface Body {
+		void run(int from, int to);
+	}
+
+	/**
+	 * A body that is also told which stripe its piece is, so it can use scratch space of its own without allocating it:
+	 * no two pieces of a run have the same stripe.
+	 */
+	interface StripedBody {
+		void run(int stripe, int from, int to);
+	}
+
+	private final Body body;
+	private final StripedBody stripedBody;
+	private final int origin;
+	private final int from;
+	private final int to;
+	private final int grain;
+
+	private ParallelRange(final Body body, final StripedBody stripedBody, final int origin, final int from, final int to,
+			final int grain) {
+		this.body = body;
+		this.stripedBody = stripedBody;
+		this.origin = origin;
+		this.from = from;
+		this.to = to;
+		this.grain = grain;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= grain) {
+			if (body != null) {
+				body.run(from, to);
+			} else {
+				stripedBody.run((from - origin) / shortestPiece(grain), from, to);
+			}
+			return;
+		}
+		final int middle = (from + to) >>> 1;
+		invokeAll(new ParallelRange(body, stripedBody, origin, from, middle, grain),
+				new ParallelRange(body, stripedBody, origin, middle, to, grain));
+	}
+
+	/**
+	 * Runs body over [from, to), in the calling thread if pool is null or the range is no larger than grain.
+	 */
+	static void run(final ForkJoinPool pool, final int from, final int to, final int grain, final Body body) {
+		if (pool == null || to - from <= grain) {
+			body.run(from, to);
+		} else {
+			invoke(pool, new ParallelRange(body, null, from, from, to, grain));
+		}
+	}
+
+	/**
+	 * Like run() with a Body, but tells body the stripe of each piece, from 0 to stripeCount(to - from, grain) - 1.
+	 */
+	static void run(final ForkJoinPool pool, final int from, final int to, final int grain, final StripedBody body) {
+		if (pool == null || to - from <= grain) {
+			body.run(0, from, to);
+		} else {
+			invoke(pool, new ParallelRange(null, body, from, from, to, grain));
+		}
+	}
+
+	private static void invoke(final ForkJoinPool pool, final ParallelRange task) {
+		if (getPool() == pool) {
+			// Called from a worker of the same pool (e.g. from a nested task): fork in place rather than submitting from outside.
+			task.invoke();
+		} else {
+			pool.invoke(task);
+		}
+	}
+
+	/**
+	 * @return how many stripes a run over count items with grain can use, i.e. how much scratch space a StripedBody needs.
+	 */
+	static int stripeCount(final int count, final int grain) {
+		if (count <= grain) {
+			return 1;
+		}
+		final int shortest = shortestPiece(grain);
+		return (count + shortest - 1) / shortest;
+	}
+
+	/**
+	 * Halving a range longer than grain leaves pieces of at least (grain + 1)/2 items, so the pieces' starts are at least
+	 * that far apart, and their offsets divided by it are distinct stripes.
+	 */
+	private static int shortestPiece(final int grain) {
+		return Math.max(1, (grain + 1) / 2);
+	}
+
+	/**
+	 * @return a grain that splits count items into about four pieces per worker of pool, but no smaller than minimum.
+	 */
+	static int grain(final ForkJoinPool pool, final int count, final int minimum) {
+		final int pieces = pool == null ? 1 : 4 * pool.getParallelism();
+		return Math.max(minimum, (count + pieces - 1) / pieces);
+	}
+}
@@ -0,0 +1,176 @@
+package cloth;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Keeps the points of a cloth at least a minimum distance apart, so the cloth doesn't pass through itself when it folds.
+ *
+ * Each call hashes every point into a uniform grid of cells as wide as the minimum distance, then finds, for each point,
+ * the points in its own and the 26 neighboring cells, so the cost is roughly linear in the number of points. The hash
+ * table is a counting sort of the points by cell hash, rebuilt from scratch each time. Each point only computes its own
+ * correction (half the overlap with every point that's too close), so the queries run in parallel without locks;
+ * the corrections are applied once all queries are done.
+ *
+ * Points that are close together in the grid (so close that their resting distance is within the minimum distance) are
+ * held apart by springs, and don't collide. Pinned points and the points of sleeping tiles push other points but don't
+ * move themselves.
+ */
+final class SelfCollision {
+	private final int cols;
+	private final int pointCount;
+	private final boolean[] pinned;
+	private final int[] pointTile;
+	private final boolean[] tileAsleep;
+	private final int mask;
+	private final int[] pointCell; // hash of each point's cell
+	private final int[] cellStart; // the points of hash h are sortedPoints[cellStart[h] .. cellStart[h+1]-1]
+	private final int[] sortedPoints;
+	private final double[] correctionX;
+	private final double[] correctionY;
+	private final double[] correctionZ;
+	// Per call inputs read by the parallel passes
+	private double[] x;
+	private double[] y;
+	private double[] z;
+	private double distance;
+	private int gridReach;
+	private boolean anyAsleep;
+	private int[][] visitedCells = new int[0][]; // scratch of queryPoints(), by stripe
+	private final ParallelRange.Body hashPass = this::hashPoints;
+	private final ParallelRange.StripedBody queryPass = this::queryPoints;
+	private final ParallelRange.Body applyPass = this::applyCorrections;
+
+	/**
+	 * @param pointTile the sleep tile of each point
+	 * @param tileAsleep whether each tile is asleep, read by every call
+	 */
+	SelfCollision(final int rows, final int cols, final boolean[] pinned, final int[] pointTile, final boolean[] tileAsleep) {
+		this.cols = cols;
+		this.pointCount = rows*cols;
+		this.pinned = pinned;
+		this.pointTile = pointTile;
+		this.tileAsleep = tileAsleep;
+		final int tableSize = Integer.highestOneBit(Math.max(2, 2*pointCount - 1)) << 1;
+		mask = tableSize - 1;
+		pointCell = new int[pointCount];
+		cellStart = new int[tableSize+1];
+		sortedPoints = new int[pointCount];
+		correctionX = new double[pointCount];
+		correctionY = new double[pointCount];
+		correctionZ = new double[pointCount];
+	}
+
+	/**
+	 * Pushes apart points closer than distance, moving x, y and z.
+	 * @param edgeLength the resting distance between neighboring points of the grid
+	 * @param anyAsleep false if no tile is asleep, to skip looking
+	 */
+	void collide(final ForkJoinPool pool, final double[] x, final double[] y, final double[] z, final double distance,
+			final double edgeLength, final boolean anyAsleep) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.distance = distance;
+		this.gridReach = Math.max(1, (int) Math.ceil(distance / edgeLength));
+		this.anyAsleep = anyAsleep;
+		final int grain = ParallelRange.grain(pool, pointCount, 1024);
+		final int stripes = ParallelRange.stripeCount(pointCount, grain);
+		if (visitedCells.length < stripes) {
+			visitedCells = new int[stripes][27];
+		}
+		ParallelRange.run(pool, 0, pointCount, grain, hashPass);
+		Arrays.fill(cellStart, 0);
+		for (int i = 0; i < pointCount; i++) {
+			cellStart[pointCell[i]+1]++;
+		}
+		for (int h = 0; h <= mask; h++) {
+			cellStart[h+1] += cellStart[h];
+		}
+		for (int i = pointCount - 1; i >= 0; i--) {
+			sortedPoints[--cellStart[pointCell[i]+1]] = i;
+		}
+		// cellStart[h+1] was decremented once per point of hash h, so it is now the start of hash h; shift it back.
+		System.arraycopy(cellStart, 1, cellStart, 0, mask+1);
+		cellStart[mask+1] = pointCount;
+		ParallelRange.run(pool, 0, pointCount, grain, queryPass);
+		ParallelRange.run(pool, 0, pointCount, grain, applyPass);
+	}
+
+	private int cell(final double coordinate) {
+		return (int) Math.floor(coordinate / distance);
+	}
+
+	private int hash(final int cx, final int cy, final int cz) {
+		return ((cx * 73856093) ^ (cy * 19349663) ^ (cz * 83492791)) & mask;
+	}
+
+	private void hashPoints(final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			pointCell[i] = hash(cell(x[i]), cell(y[i]), cell(z[i]));
+		}
+	}
+
+	private void queryPoints(final int stripe, final int from, final int to) {
+		final double distance = this.distance;
+		final double distanceSquared = distance*distance;
+		final int[] visited = visitedCells[stripe];
+		final boolean anyAsleep = this.anyAsleep;
+		for (int i = from; i < to; i++) {
+			double cx = 0;
+			double cy = 0;
+			double cz = 0;
+			if (!pinned[i] && !(anyAsleep && tileAsleep[pointTile[i]])) {
+				final int row = i / cols;
+				final int col = i % cols;
+				final int cellX = cell(x[i]);
+				final int cellY = cell(y[i]);
+				final int cellZ = cell(z[i]);
+				int visitedCount = 0;
+				for (int dx = -1; dx <= 1; dx++) {
+					for (int dy = -1; dy <= 1; dy++) {
+						cells: for (int dz = -1; dz <= 1; dz++) {
+							final int h = hash(cellX+dx, cellY+dy, cellZ+dz);
+							// Neighboring cells may share a hash; don't count their points twice.
+							for (int v = 0; v < visitedCount; v++) {
+								if (visited[v] == h) {
+									continue cells;
+								}
+							}
+							visited[visitedCount++] = h;
+							for (int k = cellStart[h], end = cellStart[h+1]; k < end; k++) {
+								final int j = sortedPoints[k];
+								if (Math.abs(j / cols - row) <= gridReach && Math.abs(j % cols - col) <= gridReach) {
+									continue;
+								}
+								final double ex = x[i]-x[j];
+								final double ey = y[i]-y[j];
+								final double ez = z[i]-z[j];
+								final double d2 = ex*ex + ey*ey + ez*ez;
+								if (d2 >= distanceSquared || d2 == 0) {
+									continue;
+								}
+								final double d = Math.sqrt(d2);
+								final double push = 0.5*(distance - d) / d;
+								cx += push*ex;
+								cy += push*ey;
+								cz += push*ez;
+							}
+						}
+					}
+				}
+			}
+			correctionX[i] = cx;
+			correctionY[i] = cy;
+			correctionZ[i] = cz;
+		}
+	}
+
+	private void applyCorrections(final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			x[i] += correctionX[i];
+			y[i] += correctionY[i];
+			z[i] += correctionZ[i];
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package cloth;
+
+import java.util.Arrays;
+
+/**
+ * The springs of a cloth, as offsets on its grid. For each entry (rowOffset, colOffset), every point (row, col) is joined to
+ * the point (row - rowOffset, col - colOffset), if there is one, by a spring whose resting length is the distance between
+ * the two points in the flat cloth. An entry has rowOffset > 0, or rowOffset = 0 and colOffset > 0, so each spring is
+ * listed once.
+ *
+ * Because every point has the same springs, ClothSimulation computes their forces straight from the grid, one entry at a
+ * time along each row, without lists of springs per point.
+ */
+public final class SpringStencil {
+	/**
+	 * The springs of the original cloth: to the point above, and to the points 1, 2, 3 and 5 to the left. The longer
+	 * horizontal springs stop the cloth folding vertically.
+	 */
+	public static final SpringStencil DEFAULT = new SpringStencil(new int[][] {{1, 0}, {0, 1}, {0, 2}, {0, 3}, {0, 5}});
+	private final int[] rowOffsets;
+	private final int[] colOffsets;
+
+	/**
+	 * @param offsets {rowOffset, colOffset} of each entry; no two the same
+	 */
+	public SpringStencil(final int[][] offsets) {
+		rowOffsets = new int[offsets.length];
+		colOffsets = new int[offsets.length];
+		for (int k = 0; k < offsets.length; k++) {
+			if (offsets[k].length != 2) {
+				throw new IllegalArgumentException("An offset is {rowOffset, colOffset}, not " + Arrays.toString(offsets[k]));
+			}
+			final int rowOffset = offsets[k][0];
+			final int colOffset = offsets[k][1];
+			if (rowOffset < 0 || rowOffset == 0 && colOffset <= 0) {
+				throw new IllegalArgumentException("Need rowOffset > 0, or rowOffset = 0 and colOffset > 0: "
+						+ Arrays.toString(offsets[k]));
+			}
+			for (int j = 0; j < k; j++) {
+				if (rowOffsets[j] == rowOffset && colOffsets[j] == colOffset) {
+					throw new IllegalArgumentException("Duplicate offset " + Arrays.toString(offsets[k]));
+				}
+			}
+			rowOffsets[k] = rowOffset;
+			colOffsets[k] = colOffset;
+		}
+	}
+
+	/**
+	 * @return this stencil plus shear springs, across both diagonals of each cell, which stop the cells shearing into
+	 * rhombi
+	 */
+	public SpringStencil withShear() {
+		return with(new int[][] {{1, 1}, {1, -1}});
+	}
+
+	/**
+	 * @return this stencil plus bend springs to the point two rows up, which stop the cloth folding horizontally
+	 */
+	public SpringStencil withBend() {
+		return with(new int[][] {{2, 0}});
+	}
+
+	/**
+	 * @return this stencil plus the entries of offsets that it doesn't have yet
+	 */
+	public SpringStencil with(final int[][] offsets) {
+		final int[][] all = new int[size() + offsets.length][];
+		int count = 0;
+		for (int k = 0; k < size(); k++) {
+			all[count++] = new int[] {rowOffsets[k], colOffsets[k]};
+		}
+		for (int[] offset : offsets) {
+			if (indexOf(offset[0], offset[1]) < 0) {
+				all[count++] = offset;
+			}
+		}
+		return new SpringStencil(Arrays.copyOf(all, count));
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public int size() {
+		return rowOffsets.length;
+	}
+
+	public int getRowOffset(final int k) {
+		return rowOffsets[k];
+	}
+
+	public int getColOffset(final int k) {
+		return colOffsets[k];
+	}
+
+	/**
+	 * @return the index of the entry (rowOffset, colOffset), or -1 if there is none
+	 */
+	public int indexOf(final int rowOffset, final int colOffset) {
+		for (int k = 0; k < size(); k++) {
+			if (rowOffsets[k] == rowOffset && colOffsets[k] == colOffset) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the resting length of the springs of entry k, for a grid whose neighbors are edgeLength apart
+	 */
+	public double getLength(final int k, final double edgeLength) {
+		return edgeLength*Math.sqrt(rowOffsets[k]*rowOffsets[k] + colOffsets[k]*colOffsets[k]);
+	}
+
+	/**
+	 * @return the number of springs of entry k in a rows x cols grid
+	 */
+	public int getSpringCount(final int k, final int rows, final int cols) {
+		return Math.max(0, rows - rowOffsets[k])*Math.max(0, cols - Math.abs(colOffsets[k]));
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		return other instanceof SpringStencil && Arrays.equals(rowOffsets, ((SpringStencil) other).rowOffsets)
+				&& Arrays.equals(colOffsets, ((SpringStencil) other).colOffsets);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31*Arrays.hashCode(rowOffsets) + Arrays.hashCode(colOffsets);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("SpringStencil[");
+		for (int k = 0; k < size(); k++) {
+			builder.append(k == 0 ? "" : ", ").append('(').append(rowOffsets[k]).append(", ").append(colOffsets[k]).append(')');
+		}
+		return builder.append(']').toString();
+	}
+}
@@ -0,0 +1,121 @@
+package cloth;
+
+/**
+ * The wind around a cloth: a wind vector at each node of a coarse 3D grid, evaluated once per step, and sampled at each
+ * point of the cloth by trilinear interpolation between the 8 nodes around it. Each step evaluates sines at the nodes
+ * only, so sampling a point costs a few multiplications, however many points the cloth has. Points outside the grid get
+ * the wind of the nearest point on its boundary.
+ *
+ * The wind blows along x with strength windForceFactor * sin(0.3 * windCycleFactor * time), and along z in waves that
+ * travel along x, 3.3 * windForceFactor * sin(windCycleFactor * time + 0.1 * x / edgeLength), both scaled by gusts that
+ * drift slowly across the grid.
+ */
+final class WindField {
+	private static final double GUSTINESS = 0.3; // gusts vary the wind by up to this fraction
+	private final double edgeLength;
+	private final double minX, minY, minZ;
+	private final double spacingX, spacingY, spacingZ;
+	private final int nx, ny, nz;
+	// Structure of arrays: the wind at node (ix, iy, iz) is at index (iz*ny + iy)*nx + ix.
+	private final double[] windX;
+	private final double[] windY;
+	private final double[] windZ;
+	private final double[] waveByX; // scratch for update(), per x
+	private final double[] gustByXY; // scratch for update(), per x and y
+
+	/**
+	 * Makes a field over the box from (minX, minY, minZ) to (maxX, maxY, maxZ) with nx x ny x nz nodes, at least 2 per axis.
+	 * @param edgeLength the resting distance between neighboring points of the cloth, which sets the length of the waves
+	 */
+	WindField(final double minX, final double minY, final double minZ, final double maxX, final double maxY, final double maxZ,
+			final int nx, final int ny, final int nz, final double edgeLength) {
+		this.nx = Math.max(2, nx);
+		this.ny = Math.max(2, ny);
+		this.nz = Math.max(2, nz);
+		this.edgeLength = edgeLength;
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		spacingX = (maxX - minX) / (this.nx - 1);
+		spacingY = (maxY - minY) / (this.ny - 1);
+		spacingZ = (maxZ - minZ) / (this.nz - 1);
+		final int nodes = this.nx*this.ny*this.nz;
+		windX = new double[nodes];
+		windY = new double[nodes];
+		windZ = new double[nodes];
+		waveByX = new double[this.nx];
+		gustByXY = new double[this.nx*this.ny];
+	}
+
+	/**
+	 * Makes a field around a rows x cols cloth hanging in the x-y plane from (0, 0, 0), with room for it to swing, and
+	 * nodes about 4 edges apart along x, where the waves travel.
+	 */
+	static WindField around(final int rows, final int cols, final double edgeLength) {
+		final double width = edgeLength*(cols-1);
+		final double height = edgeLength*(rows-1);
+		final double reach = Math.max(width, height);
+		final int nx = Math.min(129, 2 + (int) Math.ceil(2*width / (4*edgeLength)));
+		return new WindField(-0.5*width, -0.5*height, -reach, 1.5*width, 1.5*height + width, reach, nx, 9, 5, edgeLength);
+	}
+
+	/**
+	 * Evaluates the wind at every node for time.
+	 */
+	void update(final double time, final double windForceFactor, final double windCycleFactor) {
+		final double along = windForceFactor*Math.sin(0.3*windCycleFactor*time);
+		for (int ix = 0; ix < nx; ix++) {
+			final double x = (minX + ix*spacingX) / edgeLength;
+			waveByX[ix] = 3.3*windForceFactor*Math.sin(windCycleFactor*time + 0.1*x);
+			for (int iy = 0; iy < ny; iy++) {
+				final double y = (minY + iy*spacingY) / edgeLength;
+				gustByXY[iy*nx + ix] = 1 + GUSTINESS*Math.sin(0.23*windCycleFactor*time - 0.05*(x - 0.5*y));
+			}
+		}
+		for (int iz = 0, node = 0; iz < nz; iz++) {
+			for (int iy = 0; iy < ny; iy++) {
+				for (int ix = 0; ix < nx; ix++, node++) {
+					final double gust = gustByXY[iy*nx + ix];
+					windX[node] = gust*along;
+					windY[node] = 0;
+					windZ[node] = gust*waveByX[ix];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the wind at (x, y, z) into windX[index], windY[index] and windZ[index]. Safe to call from any number of
+	 * threads between updates.
+	 */
+	void sample(final double x, final double y, final double z, final double[] windX, final double[] windY,
+			final double[] windZ, final int index) {
+		final double fx = Math.max(0, Math.min(nx - 1, (x - minX) / spacingX));
+		final double fy = Math.max(0, Math.min(ny - 1, (y - minY) / spacingY));
+		final double fz = Math.max(0, Math.min(nz - 1, (z - minZ) / spacingZ));
+		final int ix = Math.min(nx - 2, (int) fx);
+		final int iy = Math.min(ny - 2, (int) fy);
+		final int iz = Math.min(nz - 2, (int) fz);
+		final double tx = fx - ix;
+		final double ty = fy - iy;
+		final double tz = fz - iz;
+		final int n000 = (iz*ny + iy)*nx + ix;
+		final int n010 = n000 + nx;
+		final int n001 = n000 + nx*ny;
+		final int n011 = n001 + nx;
+		windX[index] = interpolate(this.windX, n000, n010, n001, n011, tx, ty, tz);
+		windY[index] = interpolate(this.windY, n000, n010, n001, n011, tx, ty, tz);
+		windZ[index] = interpolate(this.windZ, n000, n010, n001, n011, tx, ty, tz);
+	}
+
+	private static double interpolate(final double[] w, final int n000, final int n010, final int n001, final int n011,
+			final double tx, final double ty, final double tz) {
+		final double w00 = w[n000] + tx*(w[n000+1] - w[n000]);
+		final double w10 = w[n010] + tx*(w[n010+1] - w[n010]);
+		final double w01 = w[n001] + tx*(w[n001+1] - w[n001]);
+		final double w11 = w[n011] + tx*(w[n011+1] - w[n011]);
+		final double w0 = w00 + ty*(w10 - w00);
+		final double w1 = w01 + ty*(w11 - w01);
+		return w0 + tz*(w1 - w0);
+	}
+}
@@ -21,6 +21,7 @@ public class Tube extends MeshView {
 	private final TriangleMesh mesh = new TriangleMesh();
 	private final ObservableFloatArray points = mesh.getPoints();
 	private final ObservableFaceArray faces = mesh.getFaces();
+	private final float[] pointCoordinates; // what we last published to points
 	private final Point3D start;
 	private final Point3D end;
 	private final Point3D diffVector;
@@ -35,6 +36,7 @@ public class Tube extends MeshView {
 		this.end = end;
 		this.radius = radius;
 		this.divisions = divisions;
+		this.pointCoordinates = new float[6*divisions];
 		diffVector = end.subtract(start);
 		perp1 = Utilities.getPerpendiculars(diffVector);
 		perp2 = Utilities._perp2;
@@ -62,6 +64,7 @@ faces.size() = 240
 		final double angleDelta = 2.0 * Math.PI / (divisions-1);
 		final int nn = divisions + divisions;
 		double angle = 0.0;
+		int index=0;
 		for (int row = 0; row < divisions; row++) {
 			Point3D p1 = perp1.multiply(radius * Math.sin(angle));
 			Point3D p2 = perp2.multiply(radius * Math.cos(angle));
@@ -71,10 +74,15 @@ faces.size() = 240
 			double x2 = x1 + diffVector.getX();
 			double y2 = y1 + diffVector.getY();
 			double z2 = z1 + diffVector.getZ();
-			points.addAll((float) x1, (float) y1, (float) z1); // left
-			points.addAll((float) x2, (float) y2, (float) z2); // right
+			pointCoordinates[index++] = (float) x1; // left
+			pointCoordinates[index++] = (float) y1;
+			pointCoordinates[index++] = (float) z1;
+			pointCoordinates[index++] = (float) x2; // right
+			pointCoordinates[index++] = (float) y2;
+			pointCoordinates[index++] = (float) z2;
 			angle += angleDelta;
 		} // for i
+		points.setAll(pointCoordinates);
 		for (int row = 0; row < divisions-1; row ++) {
 			final int row2=(row+row)%nn;
 			final int tt = row2;
@@ -101,13 +109,15 @@ faces.size() = 240
 			double x2 = x1 + diffVector.getX();
 			double y2 = y1 + diffVector.getY();
 			double z2 = z1 + diffVector.getZ();
-			points.set(index++, (float) x1);
-			points.set(index++, (float) y1);
-			points.set(index++, (float) z1);
-			points.set(index++, (float) x2);
-			points.set(index++, (float) y2);
-			points.set(index++, (float) z2);
+			pointCoordinates[index++] = (float) x1;
+			pointCoordinates[index++] = (float) y1;
+			pointCoordinates[index++] = (float) z1;
+			pointCoordinates[index++] = (float) x2;
+			pointCoordinates[index++] = (float) y2;
+			pointCoordinates[index++] = (float) z2;
 			angle += angleDelta;
 		}
+		// One bulk update, so the mesh is marked dirty once rather than once per coordinate.
+		points.set(0, pointCoordinates, 0, pointCoordinates.length);
 	}
 } // Tube
@@ -0,0 +1,138 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The PhaseTimers of one application, by name, in the order they were made. Shared by ClothMesh and Particles, which time
+ * the phases of their frames with it: each phase gets a timer the first time it's asked for, and the same one after that.
+ * Names are dotted by the thread or part they time, e.g. "cloth.springs" or "fx.meshUpload".
+ *
+ * registerMBeans() publishes every timer, including ones made later, as an MXBean named
+ * jfxexamples:type=PhaseTimer,application=...,name=..., so the timings can be watched with jconsole or VisualVM. A
+ * MetricsOverlay shows them on screen.
+ */
+public final class Metrics {
+	public static final String DOMAIN = "jfxexamples";
+	private final String application;
+	private final ConcurrentHashMap<String, PhaseTimer> byName = new ConcurrentHashMap<>();
+	private final List<PhaseTimer> timers = new CopyOnWriteArrayList<>();
+	private volatile boolean registered = false;
+
+	/**
+	 * @param application the name of the application, which names its MBeans
+	 */
+	public Metrics(final String application) {
+		this.application = application;
+	}
+
+	public String getApplication() {
+		return application;
+	}
+
+	/**
+	 * @return the timer of phase name, made if there isn't one yet
+	 */
+	public PhaseTimer timer(final String name) {
+		return timer(name, false);
+	}
+
+	/**
+	 * @return the timer of phase name, made if there isn't one yet, counting the bytes the timed thread allocates during
+	 * each call (see PhaseTimer). Counting costs more than timing, so it's meant for whole frames or ticks rather than
+	 * every phase.
+	 */
+	public PhaseTimer allocationTimer(final String name) {
+		return timer(name, true);
+	}
+
+	private PhaseTimer timer(final String name, final boolean countAllocations) {
+		final PhaseTimer existing = byName.get(name);
+		if (existing != null) {
+			return existing;
+		}
+		synchronized (this) {
+			PhaseTimer timer = byName.get(name);
+			if (timer == null) {
+				timer = new PhaseTimer(name, countAllocations);
+				timers.add(timer);
+				byName.put(name, timer);
+				if (registered) {
+					register(timer);
+				}
+			}
+			return timer;
+		}
+	}
+
+	/**
+	 * @return the timers, in the order they were made
+	 */
+	public List<PhaseTimer> getTimers() {
+		return timers;
+	}
+
+	/**
+	 * Registers each timer with the platform MBean server, now and as it's made, until unregisterMBeans().
+	 */
+	public synchronized void registerMBeans() {
+		if (registered) {
+			return;
+		}
+		registered = true;
+		for (PhaseTimer timer : timers) {
+			register(timer);
+		}
+	}
+
+	public synchronized void unregisterMBeans() {
+		if (!registered) {
+			return;
+		}
+		registered = false;
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (PhaseTimer timer : timers) {
+			try {
+				final ObjectName objectName = objectName(timer);
+				if (server.isRegistered(objectName)) {
+					server.unregisterMBean(objectName);
+				}
+			} catch (JMException exc) {
+				System.err.println("Couldn't unregister the MBean of " + timer.getName() + ": " + exc.getMessage());
+			}
+		}
+	}
+
+	private void register(final PhaseTimer timer) {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objectName = objectName(timer);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName); // left by an earlier Metrics of the same application
+			}
+			server.registerMBean(timer, objectName);
+		} catch (JMException exc) {
+			System.err.println("Couldn't register the MBean of " + timer.getName() + ": " + exc.getMessage());
+		}
+	}
+
+	private ObjectName objectName(final PhaseTimer timer) throws JMException {
+		return new ObjectName(DOMAIN + ":type=PhaseTimer,application=" + ObjectName.quote(application) + ",name="
+				+ ObjectName.quote(timer.getName()));
+	}
+
+	/**
+	 * Resets every timer (see PhaseTimer.reset()).
+	 */
+	public void reset() {
+		for (PhaseTimer timer : timers) {
+			timer.reset();
+		}
+	}
+}
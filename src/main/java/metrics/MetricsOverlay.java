@@ -0,0 +1,80 @@
+package metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javafx.scene.Node;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+/**
+ * An on-screen table of the timers of a Metrics, one line per phase, over the last second: calls per second, mean, median,
+ * 99th percentile and longest time per call, the share of the second spent in the phase, and, for timers that count them,
+ * the bytes allocated per call. The application adds getNode() to its scene and calls update() from its AnimationTimer;
+ * the text changes once a second. Must be used on the JavaFX thread.
+ */
+public class MetricsOverlay {
+	private static final long INTERVAL_NANOS = 1_000_000_000L;
+	private final Metrics metrics;
+	private final Text text = new Text();
+	private final Map<PhaseTimer, PhaseTimer.Snapshot> previous = new HashMap<>();
+	private long lastUpdate = Long.MIN_VALUE;
+
+	/**
+	 * @param fontSize the size of the text, in the units of the scene it's added to
+	 */
+	public MetricsOverlay(final Metrics metrics, final double fontSize) {
+		this.metrics = metrics;
+		text.setFont(Font.font("Monospaced", fontSize));
+		text.setFill(Color.WHITE);
+		text.setMouseTransparent(true);
+	}
+
+	public Node getNode() {
+		return text;
+	}
+
+	public boolean isVisible() {
+		return text.isVisible();
+	}
+
+	public void setVisible(final boolean visible) {
+		text.setVisible(visible);
+	}
+
+	/**
+	 * Refreshes the table if a second has passed since the last refresh.
+	 * @param nowInNanoSeconds the time of the pulse, as passed to AnimationTimer.handle()
+	 */
+	public void update(final long nowInNanoSeconds) {
+		if (lastUpdate != Long.MIN_VALUE && nowInNanoSeconds - lastUpdate < INTERVAL_NANOS) {
+			return;
+		}
+		final double seconds = lastUpdate == Long.MIN_VALUE ? 0 : (nowInNanoSeconds - lastUpdate) * 1e-9;
+		lastUpdate = nowInNanoSeconds;
+		final StringBuilder table = new StringBuilder(String.format("%-22s %8s %9s %9s %9s %9s %6s %10s%n",
+				"phase", "calls/s", "mean", "median", "p99", "max", "load", "bytes/call"));
+		for (PhaseTimer timer : metrics.getTimers()) {
+			final PhaseTimer.Snapshot now = timer.snapshot();
+			final PhaseTimer.Snapshot before = previous.put(timer, now);
+			if (before == null || seconds == 0 || !text.isVisible()) {
+				continue;
+			}
+			final PhaseTimer.Snapshot interval = now.minus(before);
+			table.append(String.format("%-22s %8.1f %9s %9s %9s %9s %5.1f%% %10s%n", timer.getName(),
+					interval.getCount() / seconds, duration(interval.getMeanNanos()), duration(interval.getPercentileNanos(50)),
+					duration(interval.getPercentileNanos(99)), duration(interval.getMaxNanos()),
+					100 * interval.getTotalNanos() * 1e-9 / seconds,
+					timer.isCountingAllocations() ? String.format("%.0f", interval.getAllocatedBytesPerCall()) : "-"));
+		}
+		text.setText(table.toString());
+	}
+
+	private static String duration(final double nanos) {
+		if (nanos >= 1e6) {
+			return String.format("%.2f ms", nanos / 1e6);
+		}
+		return String.format("%.1f us", nanos / 1e3);
+	}
+}
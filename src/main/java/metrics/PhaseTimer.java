@@ -0,0 +1,286 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times one phase of a hot path (e.g. the spring pass of a cloth step, or the upload of a mesh) into a histogram, so
+ * percentiles as well as the mean can be read. Made by Metrics.timer(); see Metrics.
+ *
+ * Typical use, with no allocation and no locks:
+ *
+ *     final long start = timer.start();
+ *     ... the phase ...
+ *     timer.stop(start);
+ *
+ * stop() returns the time it stopped at, so consecutive phases can be timed with one clock read each:
+ * mark = a.stop(mark); ... mark = b.stop(mark). Any number of threads may record into the same timer at once.
+ *
+ * The histogram has 16 buckets per power of two of nanoseconds, so a percentile is within about 6% of the true value.
+ * A timer made by Metrics.allocationTimer() also counts the bytes the calling thread allocated between start() and stop(),
+ * where the JVM can tell (HotSpot can); allocations by other threads, e.g. workers of a ForkJoinPool, are not counted.
+ */
+public final class PhaseTimer implements PhaseTimerMXBean {
+	/** A timer that records nothing, for code that is timed only when it's given a Metrics. */
+	public static final PhaseTimer NONE = new PhaseTimer("none", false, false);
+	static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS)*SUB_BUCKETS;
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final boolean allocationSupported = allocationSupported();
+	private final String name;
+	private final boolean enabled;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private final ThreadLocal<long[]> allocationStart; // null unless allocations are counted
+
+	PhaseTimer(final String name, final boolean countAllocations) {
+		this(name, true, countAllocations);
+	}
+
+	private PhaseTimer(final String name, final boolean enabled, final boolean countAllocations) {
+		this.name = name;
+		this.enabled = enabled;
+		allocationStart = countAllocations && allocationSupported ? ThreadLocal.withInitial(() -> new long[1]) : null;
+	}
+
+	private static boolean allocationSupported() {
+		try {
+			return threads instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+					&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+		} catch (LinkageError | UnsupportedOperationException exc) {
+			return false; // not a HotSpot JVM
+		}
+	}
+
+	private static long currentThreadAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the current time, in System.nanoTime() nanoseconds, to pass to stop()
+	 */
+	public long start() {
+		if (allocationStart != null) {
+			allocationStart.get()[0] = currentThreadAllocatedBytes();
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the time since start, a System.nanoTime() value.
+	 * @return the current System.nanoTime(), the start of whatever comes next
+	 */
+	public long stop(final long start) {
+		final long now = System.nanoTime();
+		if (enabled) {
+			record(now - start);
+			if (allocationStart != null) {
+				allocatedBytes.addAndGet(currentThreadAllocatedBytes() - allocationStart.get()[0]);
+			}
+		}
+		return now;
+	}
+
+	/**
+	 * Records one call that took nanos nanoseconds, e.g. the sum of several pieces of a phase, or the interval between two
+	 * events.
+	 */
+	public void record(final long nanos) {
+		if (!enabled) {
+			return;
+		}
+		counts.incrementAndGet(bucket(Math.max(0, nanos)));
+		totalNanos.addAndGet(nanos);
+	}
+
+	static int bucket(final long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		return (exponent - SUB_BUCKET_BITS + 1)*SUB_BUCKETS + (int) ((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the smallest value that goes into bucket
+	 */
+	static long bucketStart(final int bucket) {
+		if (bucket < 2*SUB_BUCKETS) {
+			return bucket;
+		}
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (bucket / SUB_BUCKETS - 1);
+	}
+
+	/**
+	 * @return what the timer has recorded so far; subtract an earlier snapshot to get what it recorded in between
+	 */
+	public Snapshot snapshot() {
+		final long[] copy = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++) {
+			copy[b] = counts.get(b);
+		}
+		return new Snapshot(copy, totalNanos.get(), allocationStart != null ? allocatedBytes.get() : -1);
+	}
+
+	public boolean isCountingAllocations() {
+		return allocationStart != null;
+	}
+
+	@Override
+	public long getCount() {
+		return snapshot().getCount();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		return snapshot().getMeanNanos() / 1e3;
+	}
+
+	@Override
+	public double getMedianMicros() {
+		return snapshot().getPercentileNanos(50) / 1e3;
+	}
+
+	@Override
+	public double get90thPercentileMicros() {
+		return snapshot().getPercentileNanos(90) / 1e3;
+	}
+
+	@Override
+	public double get99thPercentileMicros() {
+		return snapshot().getPercentileNanos(99) / 1e3;
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return snapshot().getMaxNanos() / 1e3;
+	}
+
+	@Override
+	public double getTotalSeconds() {
+		return totalNanos.get() / 1e9;
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocationStart != null ? allocatedBytes.get() : -1;
+	}
+
+	@Override
+	public double getAllocatedBytesPerCall() {
+		return snapshot().getAllocatedBytesPerCall();
+	}
+
+	/**
+	 * Forgets everything recorded so far. Calls recorded while resetting may be kept or lost.
+	 */
+	@Override
+	public void reset() {
+		for (int b = 0; b < BUCKETS; b++) {
+			counts.set(b, 0);
+		}
+		totalNanos.set(0);
+		allocatedBytes.set(0);
+	}
+
+	/**
+	 * The calls a PhaseTimer recorded up to some moment (or, made by minus(), between two moments).
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long totalNanos;
+		private final long allocatedBytes; // -1 if not counted
+
+		Snapshot(final long[] counts, final long totalNanos, final long allocatedBytes) {
+			this.counts = counts;
+			long count = 0;
+			for (long c : counts) {
+				count += c;
+			}
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		/**
+		 * @return what was recorded after earlier, a snapshot of the same timer
+		 */
+		public Snapshot minus(final Snapshot earlier) {
+			final long[] difference = new long[counts.length];
+			for (int b = 0; b < counts.length; b++) {
+				difference[b] = Math.max(0, counts[b] - earlier.counts[b]); // the timer may have been reset in between
+			}
+			return new Snapshot(difference, Math.max(0, totalNanos - earlier.totalNanos),
+					allocatedBytes < 0 ? -1 : Math.max(0, allocatedBytes - earlier.allocatedBytes));
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public double getMeanNanos() {
+			return count == 0 ? 0 : (double) totalNanos / count;
+		}
+
+		/**
+		 * @return the time that percentile percent of the calls took at most, to within the width of a bucket; 0 if there were none
+		 */
+		public double getPercentileNanos(final double percent) {
+			if (count == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+			long seen = 0;
+			for (int b = 0; b < counts.length; b++) {
+				seen += counts[b];
+				if (seen >= rank) {
+					return middle(b);
+				}
+			}
+			return middle(counts.length - 1);
+		}
+
+		/**
+		 * @return the longest call, to within the width of a bucket
+		 */
+		public double getMaxNanos() {
+			for (int b = counts.length - 1; b >= 0; b--) {
+				if (counts[b] > 0) {
+					return middle(b);
+				}
+			}
+			return 0;
+		}
+
+		private static double middle(final int bucket) {
+			final long start = bucketStart(bucket);
+			return bucket < 2*SUB_BUCKETS ? start : 0.5*(start + bucketStart(bucket + 1));
+		}
+
+		/**
+		 * @return the bytes allocated in the calls, or -1 if the timer doesn't count them
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		public double getAllocatedBytesPerCall() {
+			return allocatedBytes < 0 ? -1 : count == 0 ? 0 : (double) allocatedBytes / count;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package metrics;
+
+/**
+ * What JMX clients (e.g. jconsole or VisualVM) see of a PhaseTimer: its counts and times since it was made or reset.
+ */
+public interface PhaseTimerMXBean {
+	String getName();
+
+	long getCount();
+
+	double getMeanMicros();
+
+	double getMedianMicros();
+
+	double get90thPercentileMicros();
+
+	double get99thPercentileMicros();
+
+	double getMaxMicros();
+
+	double getTotalSeconds();
+
+	/**
+	 * @return the bytes allocated by the timed threads during the calls, or -1 if the timer doesn't count them
+	 */
+	long getAllocatedBytes();
+
+	double getAllocatedBytesPerCall();
+
+	void reset();
+}
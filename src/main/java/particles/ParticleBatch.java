@@ -0,0 +1,81 @@
+package particles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The smoke of Particles without a window, for batch runs and benchmarks: each step() does what one frame of
+ * Particles.animate() does (start a new ParticleGroup until there are enough, then move them all), but the groups are never
+ * shown, so the JavaFX toolkit needn't be running. Runs with the same seed and parameters are bit-identical.
+ */
+public final class ParticleBatch {
+	private final Particles particles = new Particles();
+	private final List<Particles.ParticleGroup> groups = new ArrayList<>();
+	private final int groupCount;
+	private final int particlesPerGroup;
+
+	/**
+	 * @param groupCount how many ParticleGroups to keep moving; one is started per step until there are that many
+	 * @param particlesPerGroup the number of particles (triangles) of each group
+	 * @param motionSpeed how far a group moves per step
+	 * @param rotationSpeed how many degrees a group turns per step
+	 * @param longevity how far a group moves before it restarts at the nozzle
+	 * @param seed the seed of the random numbers that place the particles and aim the groups
+	 */
+	public ParticleBatch(final int groupCount, final int particlesPerGroup, final double motionSpeed,
+			final double rotationSpeed, final double longevity, final long seed) {
+		if (groupCount < 1 || particlesPerGroup < 1) {
+			throw new IllegalArgumentException("groupCount and particlesPerGroup must be at least 1: " + groupCount + ", "
+					+ particlesPerGroup);
+		}
+		this.groupCount = groupCount;
+		this.particlesPerGroup = particlesPerGroup;
+		particles.setSeed(seed);
+		particles.setNumberOfParticlesInGroup(particlesPerGroup);
+		particles.setMotionSpeed(motionSpeed);
+		particles.setRotationSpeed(rotationSpeed);
+		particles.setGroupLengthLongevity(longevity);
+	}
+
+	public void step() {
+		if (groups.size() < groupCount) {
+			groups.add(particles.new ParticleGroup(particles.getDirection(), particles.getNozzleLocation()));
+		}
+		for (Particles.ParticleGroup group : groups) {
+			group.move();
+		}
+	}
+
+	/**
+	 * @return the number of particles started so far
+	 */
+	public long getParticleCount() {
+		return (long) groups.size()*particlesPerGroup;
+	}
+
+	/**
+	 * @return a CRC-32 of the state: the translation and rotation of each group, and the points of its mesh
+	 */
+	public long checksum() {
+		final CRC32 crc = new CRC32();
+		final byte[] bytes = new byte[8];
+		for (Particles.ParticleGroup group : groups) {
+			update(crc, bytes, Double.doubleToLongBits(group.getTranslateX()));
+			update(crc, bytes, Double.doubleToLongBits(group.getTranslateY()));
+			update(crc, bytes, Double.doubleToLongBits(group.getTranslateZ()));
+			update(crc, bytes, Double.doubleToLongBits(group.getRotate()));
+			for (float f : group.getPoints()) {
+				update(crc, bytes, Float.floatToIntBits(f));
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static void update(final CRC32 crc, final byte[] bytes, final long bits) {
+		for (int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (bits >>> (8*i));
+		}
+		crc.update(bytes, 0, 8);
+	}
+}
@@ -3,11 +3,11 @@ package particles;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
-import java.util.Random;
-
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.collections.ObservableFloatArray;
@@ -37,6 +37,9 @@ import javafx.scene.text.Font;
 import javafx.scene.transform.Rotate;
 import javafx.scene.transform.Translate;
 import javafx.stage.Stage;
+import metrics.Metrics;
+import metrics.MetricsOverlay;
+import metrics.PhaseTimer;
 
 /**
  * Simulation of smoke, with sliders to control the shape, size and longevity of the smoke.
@@ -46,6 +49,13 @@ import javafx.stage.Stage;
  * out in different areas).    The ParticleGroups move as a Group (cheaper than moving each individual particle) and
  * when they reach their longevity, they ParticleGroups are restarted in a randomized initial location. ParticleGroups
  * also rotate.
+ *
+ * Each frame makes at most one group and moves every group by one step, whatever the time between frames, so the smoke
+ * depends only on the number of frames and the random numbers. Each group draws from its own SplittableRandom, split from
+ * the application's when the group is made; with --seed=... (or ParticleBatch's seed) two runs make bit-identical smoke.
+ *
+ * Each frame's phases (making new groups, moving the groups, the whole pulse and the time between pulses) are timed into
+ * a Metrics, published as JMX MBeans; the F key shows their timings over the last second in a MetricsOverlay.
  * 
  * @author Donald A. Smith, ThinkerFeeler@gmail.com
  *
@@ -57,6 +67,7 @@ public class Particles extends Application {
 	private final Point3D direction = new Point3D(1.0,-1,0).normalize();
 	private final Point3D nozzleLocation = new Point3D(-50,140,0);  
 	private double particleSize = 0.25;
+	private SplittableRandom random = new SplittableRandom(); // split into a stream for each ParticleGroup; see setSeed()
 	private double rotationSpeed = 3.6*random.nextDouble();
 	private double nozzleSize = 20;
 	private double directionSpread1=0.1; 
@@ -67,7 +78,6 @@ public class Particles extends Application {
 	private double windCycleFactor = 0.04;
 	private double timeFactor = 57.2; // 1.46;
 	final static NumberFormat numberFormat = NumberFormat.getInstance();
-	final private static Random random = new Random();
 	// ............
 	private final static int width = 1600;
 	private final static int height = 900;
@@ -84,10 +94,18 @@ public class Particles extends Application {
 	private boolean stopAnimation = false;
 
 	private final Group gridGroup = new Group();
+	private final Metrics metrics = new Metrics("Particles");
+	private final PhaseTimer pulseIntervalTimer = metrics.timer("fx.pulseInterval");
+	private final PhaseTimer pulseTimer = metrics.allocationTimer("fx.pulse");
+	private final PhaseTimer spawnTimer = metrics.timer("particles.spawn");
+	private final PhaseTimer moveTimer = metrics.timer("particles.move");
+	private final MetricsOverlay metricsOverlay = new MetricsOverlay(metrics, 5.5);
+	private long lastPulse = 0;
 	private final List<ParticleGroup> particleGroups = new ArrayList<>();
 	private Slider _slider;
 	//-------------------
-	private class ParticleGroup extends Group {
+	class ParticleGroup extends Group {
+		private final SplittableRandom random = Particles.this.random.split();
 		private final TriangleMesh mesh = new TriangleMesh();
 		private final ObservableFloatArray points = mesh.getPoints();
 		private final ObservableFaceArray faces = mesh.getFaces();
@@ -120,6 +138,13 @@ public class Particles extends Application {
 			initialize(true);
 			
 		}
+		/**
+		 * @return x, y, z of each point of the group's mesh, in the group's coordinates
+		 */
+		float[] getPoints() {
+			return points.toArray(null);
+		}
+
 		private void initialize(boolean first) {
 			//final double f = first?  groupLength *random.nextDouble() : 0;
 			startX = nozzleLocation.getX();//+ f * direction.getX();
@@ -152,7 +177,7 @@ public class Particles extends Application {
 //				double x= nozzleX + len*nozzleSpread*nozzleSize*perpendicular.getX();
 //				double y= nozzleY + len*nozzleSpread*nozzleSize*perpendicular.getY();
 //				double z= nozzleZ + len*nozzleSpread*nozzleSize*perpendicular.getZ();
-				Point3D perpendicular = getRandomPerpendicular(direction);
+				Point3D perpendicular = getRandomPerpendicular(direction, random);
 				double perpF = nozzleSize *nozzleSpread * (1.0+ lenRatio*spread2ParticleGroupSpread);
 				x += perpF * perpendicular.getX();
 				y += perpF * perpendicular.getY();
@@ -220,9 +245,10 @@ public class Particles extends Application {
        /**
         * Leaves a vector perpendicular to vector in the static global variable perp2;
         * @param vector
+        * @param random the source of the random direction
         * @return a vector perpendicular to vector.
         */
-       public static Point3D getRandomPerpendicular(Point3D vector) {
+       public static Point3D getRandomPerpendicular(Point3D vector, SplittableRandom random) {
                // We need to find vector perp that is perpendicular to diffVector in 3d.
                // It has the property   perp.dotProduct(diffVector)=0.
                //   Let perp = (x,y,z).  So, we want
@@ -250,6 +276,41 @@ public class Particles extends Application {
        }
 
 	
+	/**
+	 * Restarts the random numbers from seed, and picks the rotation speed from them, so the groups made after this are the
+	 * same in every run with the same seed.
+	 */
+	void setSeed(final long seed) {
+		random = new SplittableRandom(seed);
+		rotationSpeed = 3.6*random.nextDouble();
+	}
+
+	// For ParticleBatch, which runs the groups without a window
+
+	void setNumberOfParticlesInGroup(final int numberOfParticlesInGroup) {
+		this.numberOfParticlesInGroup = numberOfParticlesInGroup;
+	}
+
+	void setMotionSpeed(final double motionSpeed) {
+		this.motionSpeed = motionSpeed;
+	}
+
+	void setRotationSpeed(final double rotationSpeed) {
+		this.rotationSpeed = rotationSpeed;
+	}
+
+	void setGroupLengthLongevity(final double groupLengthLongevity) {
+		this.groupLengthLongevity = groupLengthLongevity;
+	}
+
+	Point3D getDirection() {
+		return direction;
+	}
+
+	Point3D getNozzleLocation() {
+		return nozzleLocation;
+	}
+
 	private static String format(double d) {
 		return numberFormat.format(d);
 	}
@@ -396,6 +457,9 @@ public class Particles extends Application {
 					}
 					System.out.println("numberOfParticlesInGroup = " + numberOfParticlesInGroup);
 					break;
+				case F:
+					metricsOverlay.setVisible(!metricsOverlay.isVisible());
+					break;
 				case SPACE:
 					startOrStop();
 					break;
@@ -570,8 +634,23 @@ public class Particles extends Application {
 		root.getChildren().add(vbox);
 	}
 
+	/**
+	 * Reads the optional named parameter --seed=..., which makes the smoke the same in every run (see setSeed()).
+	 */
+	private void readParameters() {
+		final Map<String, String> named = getParameters().getNamed();
+		if (named.containsKey("seed")) {
+			try {
+				setSeed(Long.parseLong(named.get("seed").trim()));
+			} catch (NumberFormatException exc) {
+				System.err.println("Ignoring --seed=" + named.get("seed") + ": " + exc.getMessage());
+			}
+		}
+	}
+
 	@Override
 	public void start(Stage primaryStage) throws Exception {
+		readParameters();
 		root.getChildren().add(world);
 		root.setDepthTest(DepthTest.ENABLE);
 		Scene scene = new Scene(root, width, height, true);
@@ -586,6 +665,11 @@ public class Particles extends Application {
 
 		AmbientLight light = new AmbientLight(Color.ANTIQUEWHITE);
 		root.getChildren().add(light);
+		metricsOverlay.getNode().setTranslateX(-425);
+		metricsOverlay.getNode().setTranslateY(-225);
+		metricsOverlay.setVisible(false);
+		root.getChildren().add(metricsOverlay.getNode());
+		metrics.registerMBeans();
 		scene.setCamera(camera);
 		primaryStage.show();
 		animate();
@@ -595,17 +679,27 @@ public class Particles extends Application {
 		final AnimationTimer timer = new AnimationTimer() {
 			@Override
 			public void handle(long nowInNanoSeconds) {
+				if (lastPulse != 0) {
+					pulseIntervalTimer.record(nowInNanoSeconds - lastPulse);
+				}
+				lastPulse = nowInNanoSeconds;
+				metricsOverlay.update(nowInNanoSeconds);
 				if (stopAnimation) {
 					return;
 				}
+				final long pulseStart = pulseTimer.start();
+				long mark = pulseStart;
 				if (particleGroups.size()<numberOfParticleGroups) {
 					ParticleGroup group = new ParticleGroup(direction, nozzleLocation);
 					particleGroups.add(group);
 					world.getChildren().add(group);
+					mark = spawnTimer.stop(mark);
 				}
 				for (ParticleGroup g : particleGroups) {
 					g.move();
 				}
+				moveTimer.stop(mark);
+				pulseTimer.stop(pulseStart);
 			} // handle
 		}; // timer
 		timer.start();
@@ -0,0 +1,128 @@
+package cloth;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The ClothKernel of the Vector API: each instruction does as many points as fit in the widest vector registers of the
+ * machine (4 doubles with AVX2, 8 with AVX-512). Built only by the vector profile (mvn -Pvector compile, on JDK 17 or
+ * later), and used only when the JVM runs with --add-modules jdk.incubator.vector.
+ *
+ * The operations are the scalar ones of ClothSimulation, lane by lane and in the same order, so the results are
+ * bit-identical. Branches become blends: the force clamp of EXPLICIT and the zero-distance case of linear springs.
+ * Masks loaded from boolean arrays are slow in JDK 17, so ClothSimulation keeps pinned points out of the kernel's ranges
+ * instead of passing a mask.
+ */
+final class VectorClothKernel implements ClothKernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public int addSpringForces(final double[] x, final double[] y, final double[] z, final double[] forceX,
+			final double[] forceY, final double[] forceZ, final int from, final int to, final int neighborDelta,
+			final double length, final double fabricForceFactor, final boolean linear, final boolean both) {
+		final int lanes = SPECIES.length();
+		final DoubleVector zero = DoubleVector.zero(SPECIES);
+		final DoubleVector minusFactor = DoubleVector.broadcast(SPECIES, -fabricForceFactor);
+		int i = from;
+		for (; i <= to - lanes; i += lanes) {
+			final int j = i + neighborDelta;
+			final DoubleVector dx = DoubleVector.fromArray(SPECIES, x, i).sub(DoubleVector.fromArray(SPECIES, x, j));
+			final DoubleVector dy = DoubleVector.fromArray(SPECIES, y, i).sub(DoubleVector.fromArray(SPECIES, y, j));
+			final DoubleVector dz = DoubleVector.fromArray(SPECIES, z, i).sub(DoubleVector.fromArray(SPECIES, z, j));
+			final DoubleVector distance = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).sqrt();
+			final DoubleVector stretch = distance.sub(length);
+			final DoubleVector f;
+			if (linear) {
+				f = zero.blend(minusFactor.mul(stretch).div(distance), distance.compare(VectorOperators.GT, 0));
+			} else {
+				f = minusFactor.mul(stretch.abs().mul(stretch)); // signum(stretch)*stretch*stretch
+			}
+			final DoubleVector fx = f.mul(dx);
+			final DoubleVector fy = f.mul(dy);
+			final DoubleVector fz = f.mul(dz);
+			DoubleVector.fromArray(SPECIES, forceX, i).add(fx).intoArray(forceX, i);
+			DoubleVector.fromArray(SPECIES, forceY, i).add(fy).intoArray(forceY, i);
+			DoubleVector.fromArray(SPECIES, forceZ, i).add(fz).intoArray(forceZ, i);
+			if (both) {
+				// j < i, so these loads see the stores above, as the scalar loop would.
+				DoubleVector.fromArray(SPECIES, forceX, j).sub(fx).intoArray(forceX, j);
+				DoubleVector.fromArray(SPECIES, forceY, j).sub(fy).intoArray(forceY, j);
+				DoubleVector.fromArray(SPECIES, forceZ, j).sub(fz).intoArray(forceZ, j);
+			}
+		}
+		return i;
+	}
+
+	@Override
+	public int integrate(final double[][] arrays, final int from, final int to,
+			final ClothSimulation.Integrator integrator, final double gravity, final double timeDelta,
+			final double velocityRetained) {
+		final double[] x = arrays[X], y = arrays[Y], z = arrays[Z];
+		final double[] previousX = arrays[PREVIOUS_X], previousY = arrays[PREVIOUS_Y], previousZ = arrays[PREVIOUS_Z];
+		final double[] velocityX = arrays[VELOCITY_X], velocityY = arrays[VELOCITY_Y], velocityZ = arrays[VELOCITY_Z];
+		final double[] forceX = arrays[FORCE_X], forceY = arrays[FORCE_Y], forceZ = arrays[FORCE_Z];
+		final double[] windX = arrays[WIND_X], windY = arrays[WIND_Y], windZ = arrays[WIND_Z];
+		final int lanes = SPECIES.length();
+		final DoubleVector retained = DoubleVector.broadcast(SPECIES, velocityRetained);
+		final DoubleVector delta = DoubleVector.broadcast(SPECIES, timeDelta);
+		final DoubleVector deltaSquared = DoubleVector.broadcast(SPECIES, timeDelta*timeDelta);
+		int i = from;
+		for (; i <= to - lanes; i += lanes) {
+			DoubleVector fx = DoubleVector.fromArray(SPECIES, forceX, i);
+			DoubleVector fy = DoubleVector.fromArray(SPECIES, forceY, i);
+			DoubleVector fz = DoubleVector.fromArray(SPECIES, forceZ, i);
+			if (integrator == ClothSimulation.Integrator.EXPLICIT) {
+				final DoubleVector magnitude = fx.mul(fx).add(fy.mul(fy)).add(fz.mul(fz)).sqrt();
+				final VectorMask<Double> clamped = magnitude.compare(VectorOperators.GT, 1);
+				fx = fx.blend(fx.div(magnitude), clamped);
+				fy = fy.blend(fy.div(magnitude), clamped);
+				fz = fz.blend(fz.div(magnitude), clamped);
+			}
+			fx = fx.add(DoubleVector.fromArray(SPECIES, windX, i));
+			fy = fy.add(DoubleVector.fromArray(SPECIES, windY, i).add(gravity));
+			fz = fz.add(DoubleVector.fromArray(SPECIES, windZ, i));
+			final DoubleVector px = DoubleVector.fromArray(SPECIES, x, i);
+			final DoubleVector py = DoubleVector.fromArray(SPECIES, y, i);
+			final DoubleVector pz = DoubleVector.fromArray(SPECIES, z, i);
+			final DoubleVector vx, vy, vz;
+			switch (integrator) {
+			case EXPLICIT:
+				vx = fx;
+				vy = fy;
+				vz = fz;
+				break;
+			case SYMPLECTIC_EULER:
+				vx = retained.mul(DoubleVector.fromArray(SPECIES, velocityX, i)).add(delta.mul(fx));
+				vy = retained.mul(DoubleVector.fromArray(SPECIES, velocityY, i)).add(delta.mul(fy));
+				vz = retained.mul(DoubleVector.fromArray(SPECIES, velocityZ, i)).add(delta.mul(fz));
+				break;
+			case VERLET:
+				vx = verletVelocity(px, DoubleVector.fromArray(SPECIES, previousX, i), fx, retained, deltaSquared, delta);
+				vy = verletVelocity(py, DoubleVector.fromArray(SPECIES, previousY, i), fy, retained, deltaSquared, delta);
+				vz = verletVelocity(pz, DoubleVector.fromArray(SPECIES, previousZ, i), fz, retained, deltaSquared, delta);
+				break;
+			default:
+				return i; // the other integrators don't use this pass
+			}
+			vx.intoArray(velocityX, i);
+			vy.intoArray(velocityY, i);
+			vz.intoArray(velocityZ, i);
+			px.intoArray(previousX, i);
+			py.intoArray(previousY, i);
+			pz.intoArray(previousZ, i);
+			px.add(delta.mul(vx)).intoArray(x, i);
+			py.add(delta.mul(vy)).intoArray(y, i);
+			pz.add(delta.mul(vz)).intoArray(z, i);
+		}
+		return i;
+	}
+
+	private static DoubleVector verletVelocity(final DoubleVector position, final DoubleVector previous,
+			final DoubleVector force, final DoubleVector retained, final DoubleVector deltaSquared,
+			final DoubleVector delta) {
+		final DoubleVector next = position.add(retained.mul(position.sub(previous))).add(deltaSquared.mul(force));
+		return next.sub(position).div(delta);
+	}
+}